@@ -0,0 +1,94 @@
+package connectfour.bench;
+
+import connectfour.engine.GameBoard;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reproducible move sequences for the benchmarks. Every sequence comes from the same seed,
+ * so runs on different releases replay exactly the same positions.
+ */
+final class BenchmarkGames
+{
+    static final long SEED = 20140421L;
+
+    /**
+     * number of cells on the default board, which is also the length of a filled game
+     */
+    static final int CELLS = GameBoard.DEFAULT_ROWS * GameBoard.DEFAULT_COLUMNS;
+
+    private BenchmarkGames()
+    {
+    }
+
+    /**
+     * Random games that keep dropping discs until the board is full, ignoring any wins
+     *
+     * @param count - number of games
+     * @return the columns played in each game
+     */
+    static int[][] fillGames(int count)
+    {
+        Random random = new Random(SEED);
+        GameBoard board = new GameBoard();
+        int[][] games = new int[count][CELLS];
+        for (int[] game : games) {
+            board.clearBoard();
+            for (int move = 0; move < CELLS; move++) {
+                int column;
+                do {
+                    column = random.nextInt(board.getColumnNumber());
+                }
+                while (board.tryPutDisc(move % 2 + 1, column) != GameBoard.MOVE_DONE);
+                game[move] = column;
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Random positions part way through a game where neither player has won yet
+     *
+     * @param count - number of positions
+     * @return the columns played to reach each position
+     */
+    static int[][] midGamePositions(int count)
+    {
+        Random random = new Random(SEED);
+        GameBoard board = new GameBoard();
+        int[][] positions = new int[count][];
+        for (int i = 0; i < count; i++) {
+            board.clearBoard();
+            int[] moves = new int[random.nextInt(CELLS)];
+            int played = 0;
+            while (played < moves.length) {
+                int column = random.nextInt(board.getColumnNumber());
+                int player = played % 2 + 1;
+                if (board.isWinningMove(player, column)) {
+                    break;
+                }
+                if (board.tryPutDisc(player, column) == GameBoard.MOVE_DONE) {
+                    moves[played++] = column;
+                }
+            }
+            positions[i] = Arrays.copyOf(moves, played);
+        }
+        return positions;
+    }
+
+    /**
+     * Play a sequence of moves on a new board, starting with player 1
+     *
+     * @param moves - the columns to play
+     * @return the resulting board
+     */
+    static GameBoard play(int[] moves)
+    {
+        GameBoard board = new GameBoard();
+        for (int move = 0; move < moves.length; move++) {
+            board.tryPutDisc(move % 2 + 1, moves[move]);
+        }
+        return board;
+    }
+}
@@ -0,0 +1,23 @@
+package connectfour.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH suite with the GC profiler always on, so every result reports bytes allocated
+ * per operation next to the throughput. Takes the usual JMH command line options.
+ */
+public class BenchmarkRunner
+{
+    public static void main(String... args) throws RunnerException, CommandLineOptionException
+    {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
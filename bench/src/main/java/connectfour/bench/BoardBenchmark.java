@@ -0,0 +1,79 @@
+package connectfour.bench;
+
+import connectfour.engine.GameBoard;
+import connectfour.engine.OutsideBoardException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GameBoard hot paths. Scores are per disc dropped or per column looked up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark
+{
+    private static final int GAMES     = 1024;
+    private static final int POSITIONS = 1024;
+    private static final int COLUMNS   = GameBoard.DEFAULT_COLUMNS;
+
+    private GameBoard   board;
+    private int[][]     games;
+    private GameBoard[] positions;
+    private int         next;
+
+    @Setup
+    public void setUp()
+    {
+        board = new GameBoard();
+        games = BenchmarkGames.fillGames(GAMES);
+        int[][] moves = BenchmarkGames.midGamePositions(POSITIONS);
+        positions = new GameBoard[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = BenchmarkGames.play(moves[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkGames.CELLS)
+    public GameBoard putDisc() throws OutsideBoardException
+    {
+        int[] game = games[next++ & (GAMES - 1)];
+        board.clearBoard();
+        for (int move = 0; move < game.length; move++) {
+            board.putDisc(move % 2 + 1, game[move]);
+        }
+        return board;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLUMNS)
+    public void getColumnHeight(Blackhole blackhole) throws OutsideBoardException
+    {
+        GameBoard position = positions[next++ & (POSITIONS - 1)];
+        for (int column = 0; column < COLUMNS; column++) {
+            blackhole.consume(position.getColumnHeight(column));
+        }
+    }
+
+    @Benchmark
+    public boolean isBoardFull()
+    {
+        return positions[next++ & (POSITIONS - 1)].isBoardFull();
+    }
+}
@@ -0,0 +1,94 @@
+package connectfour.bench;
+
+import connectfour.engine.GameEngine;
+import connectfour.engine.Move;
+import connectfour.engine.OutsideBoardException;
+import connectfour.engine.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GameEngine hot paths. Scores are per move or per game over check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark
+{
+    private static final int GAMES     = 1024;
+    private static final int POSITIONS = 1024;
+
+    private GameEngine   engine;
+    private int[][]      games;
+    private GameEngine[] positions;
+    private Move[]       moves;
+    private int          next;
+
+    @Setup
+    public void setUp()
+    {
+        engine = new GameEngine(new Player(1), new Player(2));
+        games = BenchmarkGames.fillGames(GAMES);
+
+        // moves are made once up front so that only the engine is measured
+        moves = new Move[engine.getColumnNumber()];
+        for (int column = 0; column < moves.length; column++) {
+            moves[column] = new Move(column);
+        }
+
+        // positions are played through the engine so that it knows the last move
+        int[][] positionMoves = BenchmarkGames.midGamePositions(POSITIONS);
+        positions = new GameEngine[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = new GameEngine(new Player(1), new Player(2));
+            for (int column : positionMoves[i]) {
+                positions[i].tryPutDisc(column);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkGames.CELLS)
+    public GameEngine putDisc() throws OutsideBoardException
+    {
+        int[] game = games[next++ & (GAMES - 1)];
+        engine.clearBoard();
+        for (int column : game) {
+            engine.putDisc(moves[column]);
+        }
+        return engine;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkGames.CELLS)
+    public void putDiscAndCheck(Blackhole blackhole) throws OutsideBoardException
+    {
+        int[] game = games[next++ & (GAMES - 1)];
+        engine.clearBoard();
+        for (int column : game) {
+            engine.putDisc(moves[column]);
+            blackhole.consume(engine.isGameOver());
+        }
+    }
+
+    @Benchmark
+    public Player isGameOver()
+    {
+        return positions[next++ & (POSITIONS - 1)].isGameOver();
+    }
+}
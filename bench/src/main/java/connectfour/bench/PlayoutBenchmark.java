@@ -0,0 +1,74 @@
+package connectfour.bench;
+
+import connectfour.engine.GameBoard;
+import connectfour.engine.GameEngine;
+import connectfour.engine.Player;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random games played through the engine from the empty board until one player wins or the
+ * board is full. The score is games per second, the moves counter gives moves per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayoutBenchmark
+{
+    private GameEngine engine;
+    private long       seed;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class MoveCounter
+    {
+        public long moves;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            moves = 0;
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        engine = new GameEngine(new Player(1), new Player(2));
+        seed = BenchmarkGames.SEED;
+    }
+
+    @Benchmark
+    public Player randomPlayout(MoveCounter counter)
+    {
+        engine.clearBoard();
+        int columns = engine.getColumnNumber();
+        Player result;
+        while ((result = engine.isGameOver()) == null) {
+            // xorshift keeps the playout free of allocation and reproducible from the seed
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            int column = (int) ((seed >>> 1) % columns);
+            if (engine.tryPutDisc(column) == GameBoard.MOVE_DONE) {
+                ++counter.moves;
+            }
+        }
+        return result;
+    }
+}
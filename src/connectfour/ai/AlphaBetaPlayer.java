@@ -0,0 +1,755 @@
+package connectfour.ai;
+
+import connectfour.engine.GameBoard;
+import connectfour.engine.Player;
+import connectfour.stats.EngineMetrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AlphaBetaPlayer extends Player
+{
+    /**
+     * score for connecting enough discs to win on the next move. Faster wins score higher.
+     */
+    public static final int WIN_SCORE = 1000000;
+
+    /**
+     * scores above this are forced wins, scores below its negative are forced losses
+     */
+    public static final int WIN_THRESHOLD = WIN_SCORE - 10000;
+
+    private static final int INFINITY = WIN_SCORE + 1;
+
+    public static final long DEFAULT_MOVE_MILLIS = 1000;
+    public static final int  DEFAULT_TABLE_BITS  = 22;
+
+    /**
+     * how often (in nodes) the search checks its budget
+     */
+    private static final int BUDGET_CHECK_INTERVAL = 1024;
+
+    private final int                maxDepth;
+    private final long               moveMillis;
+    private final long               maxNodes;
+    private final int                threads;
+    private final TranspositionTable table;
+
+    /**
+     * one search worker per thread. Worker 0 runs on the calling thread and decides the move,
+     * the others (lazy SMP helpers) only fill the shared transposition table.
+     */
+    private SearchWorker[]  workers;
+    private ExecutorService helperPool;
+    private Future<?>[]     helperResults;
+
+    private int[] moveOrder;
+
+    /**
+     * moves of positions that were searched ahead of time, or null
+     */
+    private OpeningBook openingBook;
+
+    /**
+     * number of winning line windows through each cell, indexed by column * rows + height
+     */
+    private int[] cellWeights;
+
+    private volatile long    deadline;
+    private          long    nodeLimit;
+    private volatile boolean helpersStopped;
+
+    /**
+     * searches started by chooseMove or analyze and stop calls so far. The n-th search
+     * runs while fewer than n stops have come, the same way as for ponder, so a stop that
+     * comes before its search has started is not lost.
+     */
+    private       long       searchCount;
+    private final AtomicLong searchStops = new AtomicLong();
+
+    /**
+     * set while ponder is running. A ponder search has no budget and only ends when
+     * stopPondering is called or the position is solved.
+     */
+    private volatile boolean pondering;
+
+    /**
+     * ponders started and stopPondering calls so far. The n-th ponder runs while fewer
+     * than n stops have come, so every stop ends exactly one ponder, whether it comes
+     * before, during or after it.
+     */
+    private       long       ponderCount;
+    private final AtomicLong ponderStops = new AtomicLong();
+
+    /**
+     * stats of the last search
+     */
+    private long  lastNodes;
+    private long  lastNanos;
+    private int   lastScore;
+    private int   lastDepth;
+    private int[] lastPrincipalVariation = new int[0];
+
+    /**
+     * Create a computer player that searches with the default time budget per move
+     *
+     * @param playerNum - the id for the player
+     */
+    public AlphaBetaPlayer(int playerNum)
+    {
+        this(playerNum, 0, DEFAULT_MOVE_MILLIS, 0, DEFAULT_TABLE_BITS);
+    }
+
+    /**
+     * Create a computer player that searches to a fixed depth
+     *
+     * @param playerNum - the id for the player
+     * @param maxDepth - the number of moves to search ahead
+     * @param tableBits - log2 of the number of transposition table entries
+     */
+    public AlphaBetaPlayer(int playerNum, int maxDepth, int tableBits)
+    {
+        this(playerNum, maxDepth, 0, 0, tableBits);
+    }
+
+    /**
+     * Create a single threaded computer player that deepens its search until one of its
+     * limits is reached. The best move of the last finished depth is played when the time
+     * or node budget runs out.
+     *
+     * @param playerNum - the id for the player
+     * @param maxDepth - the most moves to search ahead, 0 to search up to the end of the game
+     * @param moveMillis - wall-clock budget per move in milliseconds, 0 for no time limit
+     * @param maxNodes - positions to visit per move, 0 for no node limit
+     * @param tableBits - log2 of the number of transposition table entries
+     */
+    public AlphaBetaPlayer(int playerNum, int maxDepth, long moveMillis, long maxNodes, int tableBits)
+    {
+        this(playerNum, maxDepth, moveMillis, maxNodes, tableBits, 1);
+    }
+
+    /**
+     * Create a computer player that searches on several threads. All threads share one
+     * transposition table; the extra threads search the same position (lazy SMP) so that
+     * the main thread finds more of its results in the table.
+     *
+     * @param playerNum - the id for the player
+     * @param maxDepth - the most moves to search ahead, 0 to search up to the end of the game
+     * @param moveMillis - wall-clock budget per move in milliseconds, 0 for no time limit
+     * @param maxNodes - positions the main thread visits per move, 0 for no node limit
+     * @param tableBits - log2 of the number of transposition table entries
+     * @param threads - number of search threads
+     */
+    public AlphaBetaPlayer(int playerNum, int maxDepth, long moveMillis, long maxNodes, int tableBits, int threads)
+    {
+        super(playerNum);
+        this.maxDepth = maxDepth;
+        this.moveMillis = moveMillis;
+        this.maxNodes = maxNodes;
+        this.threads = Math.max(1, threads);
+        table = new TranspositionTable(tableBits);
+    }
+
+    @Override
+    public boolean isComputer()
+    {
+        return true;
+    }
+
+    /**
+     * Search the board with iterative deepening negamax alpha-beta and pick the best column.
+     * Each depth starts from the principal variation and transposition table of the one before.
+     * The search is for whichever player is to move, so the same player can take either seat.
+     *
+     * @param board - the current game board, with this player to move
+     * @return the column index for the move or -1 if there are no legal moves
+     */
+    @Override
+    public int chooseMove(GameBoard board)
+    {
+        ++searchCount;
+        long start = System.nanoTime();
+        if (openingBook != null) {
+            long entry = openingBook.probe(board);
+            int bookMove = OpeningBook.move(entry);
+            // a damaged book could hold a column that is full or not on the board; search instead
+            if (entry != OpeningBook.MISS && board.isValidColumn(bookMove)
+                && board.tryGetColumnHeight(bookMove) < board.getRowNumber()) {
+                lastNodes = 0;
+                lastNanos = System.nanoTime() - start;
+                lastScore = OpeningBook.score(entry);
+                lastDepth = 0;
+                lastPrincipalVariation = new int[] {bookMove};
+                return bookMove;
+            }
+        }
+        return searchMove(board, board.getDiscCount() % 2 + 1, maxDepth, moveMillis, maxNodes, start);
+    }
+
+    /**
+     * Search a position for whichever player is to move, with limits for this search only
+     * instead of the player's own. Player 1 is taken to have moved first. The opening book
+     * is not used. The results are read with getLastScore, getLastDepth and the other getters,
+     * with the score from the point of view of the player to move.
+     *
+     * @param board - the position to search
+     * @param depth - the most moves to search ahead, 0 for no depth limit
+     * @param millis - time budget in milliseconds, 0 for no time limit
+     * @param nodes - positions the main thread visits, 0 for no node limit
+     * @return the best column, or -1 if there are no legal moves
+     */
+    public int analyze(GameBoard board, int depth, long millis, long nodes)
+    {
+        ++searchCount;
+        return searchMove(board, board.getDiscCount() % 2 + 1, depth, millis, nodes, System.nanoTime());
+    }
+
+    private int searchMove(GameBoard board, int player, int depth, long millis, long nodes, long start)
+    {
+        deadline = millis > 0 ? start + millis * 1000000L : Long.MAX_VALUE;
+        nodeLimit = nodes;
+        int bestMove = search(board, player, depth > 0 ? depth : Integer.MAX_VALUE);
+
+        SearchWorker main = workers[0];
+        lastNodes = 0;
+        long tableProbes = 0;
+        long tableHits = 0;
+        for (SearchWorker worker : workers) {
+            lastNodes += worker.nodes;
+            tableProbes += worker.tableProbes;
+            tableHits += worker.tableHits;
+        }
+        lastNanos = System.nanoTime() - start;
+        lastScore = main.bestScore;
+        lastDepth = main.completedDepth;
+        EngineMetrics.getInstance().recordSearch(lastNanos, lastNodes, lastDepth, tableProbes, tableHits);
+        // copied because pondering reuses the workers
+        lastPrincipalVariation = Arrays.copyOf(main.principalVariation, main.principalVariationLength);
+        return bestMove;
+    }
+
+    /**
+     * Ask a running search to finish. chooseMove returns the best move of the last
+     * depth it finished. Every chooseMove and analyze call must be matched by one stop,
+     * made before, during or after the call: a stop that comes before the search starts
+     * makes it return right away, and a stop for a search that has already returned does
+     * nothing.
+     */
+    @Override
+    public void stop()
+    {
+        searchStops.incrementAndGet();
+    }
+
+    private boolean isSearchStopped()
+    {
+        return searchStops.get() >= searchCount;
+    }
+
+    /**
+     * Search the opponent's replies while the opponent is thinking. Everything found goes
+     * into the transposition table, so the search after the opponent's move starts with
+     * the positions after every reply already searched, and reaches the same depth almost
+     * at once. The search deepens without a time or depth limit until stopPondering is
+     * called. Must not run at the same time as chooseMove, and every ponder must be
+     * matched by one stopPondering call.
+     *
+     * @param board - the current game board, with the opponent to move
+     */
+    @Override
+    public void ponder(GameBoard board)
+    {
+        ++ponderCount;
+        pondering = true;
+        try {
+            if (!isPonderStopped()) {
+                search(board, board.getDiscCount() % 2 + 1, Integer.MAX_VALUE);
+            }
+        } finally {
+            pondering = false;
+        }
+    }
+
+    /**
+     * Ask a running ponder to finish. A stop that comes before ponder starts makes it
+     * return right away, and a stop for a ponder that has already returned does nothing.
+     */
+    @Override
+    public void stopPondering()
+    {
+        ponderStops.incrementAndGet();
+    }
+
+    private boolean isPonderStopped()
+    {
+        return ponderStops.get() >= ponderCount;
+    }
+
+    /**
+     * Play the moves of an opening book in the positions it has, instead of searching
+     *
+     * @param openingBook - the book, or null to always search
+     */
+    public void setOpeningBook(OpeningBook openingBook)
+    {
+        this.openingBook = openingBook;
+    }
+
+    /**
+     * Get the number of positions visited by the last search, over all threads
+     *
+     * @return the node count
+     */
+    public long getLastNodeCount()
+    {
+        return lastNodes;
+    }
+
+    /**
+     * Get the search speed of the last search
+     *
+     * @return positions visited per second
+     */
+    public long getLastNodesPerSecond()
+    {
+        return lastNanos == 0 ? 0 : lastNodes * 1000000000L / lastNanos;
+    }
+
+    /**
+     * Get the score of the last search from this player's point of view. Scores above
+     * WIN_THRESHOLD are forced wins, scores below the negative of that are forced losses.
+     * A win in n moves (counting both players' moves) scores WIN_SCORE - n.
+     *
+     * @return the score of the chosen move
+     */
+    public int getLastScore()
+    {
+        return lastScore;
+    }
+
+    /**
+     * Get the depth of the last finished iteration of the last search
+     *
+     * @return the depth searched
+     */
+    public int getLastDepth()
+    {
+        return lastDepth;
+    }
+
+    /**
+     * Get the best line of play found by the last search, starting with this player's move
+     *
+     * @return the columns of the line
+     */
+    public int[] getPrincipalVariation()
+    {
+        return lastPrincipalVariation.clone();
+    }
+
+    /**
+     * Get the number of threads this player searches with
+     *
+     * @return the thread count
+     */
+    public int getThreadCount()
+    {
+        return threads;
+    }
+
+    /**
+     * Remove everything the player has learned from earlier searches
+     */
+    public void clearTable()
+    {
+        table.clear();
+    }
+
+    /**
+     * Run iterative deepening on every worker thread, with worker 0 on the calling thread
+     *
+     * @param board - the position to search
+     * @param player - the player to move
+     * @param maxDepth - the deepest iteration to run
+     * @return the best move found for the player
+     */
+    private int search(GameBoard board, int player, int maxDepth)
+    {
+        prepare(board);
+        helpersStopped = false;
+        table.newSearch();
+
+        int remaining = board.getRowNumber() * board.getColumnNumber() - board.getDiscCount();
+        int depthLimit = Math.min(maxDepth, remaining);
+
+        for (int i = 1; i < threads; i++) {
+            SearchWorker helper = workers[i];
+            helperResults[i] = helperPool.submit(() -> helper.iterate(board, player, depthLimit));
+        }
+        SearchWorker main = workers[0];
+        int bestMove = main.iterate(board, player, depthLimit);
+
+        helpersStopped = true;
+        for (int i = 1; i < threads; i++) {
+            try {
+                helperResults[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Win scores are stored relative to the position they were found in, so that the
+     * same entry is valid at any distance from the root
+     */
+    private static int toTable(int score, int ply)
+    {
+        if (score > WIN_THRESHOLD) {
+            return score + ply;
+        }
+        if (score < -WIN_THRESHOLD) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private static int fromTable(int score, int ply)
+    {
+        if (score > WIN_THRESHOLD) {
+            return score - ply;
+        }
+        if (score < -WIN_THRESHOLD) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Sum of the cell weights of the player's discs minus the opponent's discs
+     *
+     * @param board - the board to evaluate
+     * @param player - the player the score is for
+     * @return the static evaluation
+     */
+    private int evaluate(GameBoard board, int player)
+    {
+        int rows = board.getRowNumber();
+        int eval = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < board.getColumnNumber(); column++) {
+                int disc = board.tryGetBoardPos(row, column);
+                if (disc != 0) {
+                    int weight = cellWeights[column * rows + rows - 1 - row];
+                    eval += disc == player ? weight : -weight;
+                }
+            }
+        }
+        return eval;
+    }
+
+    /**
+     * Size the workers, move order and cell weights for the board being searched
+     *
+     * @param board - the game board
+     */
+    private void prepare(GameBoard board)
+    {
+        int rows = board.getRowNumber();
+        int columns = board.getColumnNumber();
+        int connectLength = board.getConnectLength();
+        if (workers != null) {
+            GameBoard prepared = workers[0].board;
+            if (prepared.getRowNumber() == rows && prepared.getColumnNumber() == columns
+                && prepared.getConnectLength() == connectLength) {
+                return;
+            }
+            // hashes of a different board size do not describe the same positions
+            table.clear();
+        }
+
+        // center column first, then alternating outwards
+        moveOrder = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            int offset = (i + 1) / 2;
+            moveOrder[i] = (columns - 1) / 2 + (i % 2 == 1 ? -offset : offset);
+            if (moveOrder[i] < 0 || moveOrder[i] >= columns) {
+                moveOrder[i] = (columns - 1) / 2 + (i % 2 == 1 ? offset : -offset);
+            }
+        }
+
+        cellWeights = new int[rows * columns];
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        for (int column = 0; column < columns; column++) {
+            for (int height = 0; height < rows; height++) {
+                int windows = 0;
+                for (int[] dir : directions) {
+                    // count the windows of connectLength along this direction that contain the cell
+                    for (int start = 1 - connectLength; start <= 0; start++) {
+                        int firstColumn = column + start * dir[0];
+                        int firstHeight = height + start * dir[1];
+                        int lastColumn = firstColumn + (connectLength - 1) * dir[0];
+                        int lastHeight = firstHeight + (connectLength - 1) * dir[1];
+                        if (firstColumn >= 0 && lastColumn < columns && Math.min(firstHeight, lastHeight) >= 0
+                            && Math.max(firstHeight, lastHeight) < rows) {
+                            ++windows;
+                        }
+                    }
+                }
+                cellWeights[column * rows + height] = windows;
+            }
+        }
+
+        workers = new SearchWorker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new SearchWorker(i, board);
+        }
+        if (threads > 1 && helperPool == null) {
+            helperResults = new Future<?>[threads];
+            helperPool = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "search-helper-" + getInt());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * The state of one search thread. Every worker has its own board and counters,
+     * only the transposition table is shared.
+     */
+    private class SearchWorker
+    {
+        private final int id;
+
+        /**
+         * copy of the root position that the search plays and takes back moves on,
+         * so the search never changes the game's board
+         */
+        private final GameBoard board;
+
+        /**
+         * best line of play found by the last completed iteration
+         */
+        private final int[] principalVariation;
+        private       int   principalVariationLength;
+
+        private int     rootPlayer;
+        private int     rootMove;
+        private long    nodes;
+        private long    tableProbes;
+        private long    tableHits;
+        private boolean aborted;
+        private int     bestScore;
+        private int     completedDepth;
+
+        SearchWorker(int id, GameBoard root)
+        {
+            this.id = id;
+            board = new GameBoard(root.getRowNumber(), root.getColumnNumber(), root.getConnectLength());
+            principalVariation = new int[root.getRowNumber() * root.getColumnNumber()];
+        }
+
+        /**
+         * Run iterative deepening from the position until a limit is reached. Helpers start
+         * at staggered depths so that the threads do not all search the same tree in lockstep.
+         *
+         * @param root - the root position
+         * @param player - the player to move in the root position
+         * @param depthLimit - the deepest iteration to run
+         * @return the best move of the last finished iteration
+         */
+        int iterate(GameBoard root, int player, int depthLimit)
+        {
+            rootPlayer = player;
+            nodes = 0;
+            tableProbes = 0;
+            tableHits = 0;
+            aborted = false;
+            principalVariationLength = 0;
+            completedDepth = 0;
+            bestScore = 0;
+            int eval = evaluate(root, player);
+            int bestMove = -1;
+
+            for (int depth = 1 + id % 2; depth <= depthLimit; depth++) {
+                rootMove = -1;
+                board.copyFrom(root);
+                int score = negamax(0, depth, -INFINITY, INFINITY, player, eval);
+                if (aborted) {
+                    break;
+                }
+                bestMove = rootMove;
+                bestScore = score;
+                completedDepth = depth;
+                storePrincipalVariation();
+
+                // a forced result will not change with more depth
+                if (Math.abs(score) > WIN_THRESHOLD) {
+                    break;
+                }
+            }
+            return bestMove;
+        }
+
+        /**
+         * Negamax search with alpha-beta pruning
+         *
+         * @param ply - distance from the root position
+         * @param depth - remaining moves to search
+         * @param alpha - lower bound of the search window
+         * @param beta - upper bound of the search window
+         * @param player - the player to move
+         * @param eval - static evaluation of the position for the player to move
+         * @return the score of the position for the player to move
+         */
+        private int negamax(int ply, int depth, int alpha, int beta, int player, int eval)
+        {
+            int columns = board.getColumnNumber();
+            // the main thread always finishes its first depth so that there is a move to play
+            if (++nodes % BUDGET_CHECK_INTERVAL == 0 && (completedDepth > 0 || id > 0 || pondering)
+                && outOfBudget()) {
+                aborted = true;
+            }
+            if (aborted) {
+                return 0;
+            }
+
+            if (board.isBoardFull()) {
+                return 0;
+            }
+            for (int i = 0; i < columns; i++) {
+                int column = moveOrder[i];
+                if (board.isWinningMove(player, column)) {
+                    if (ply == 0) {
+                        rootMove = column;
+                    }
+                    return WIN_SCORE - ply - 1;
+                }
+            }
+            if (depth == 0) {
+                return eval;
+            }
+
+            long key = board.getHash();
+            long entry = table.probe(key);
+            int tableMove = ply == 0 && principalVariationLength > 0 ? principalVariation[0] : -1;
+            ++tableProbes;
+            if (entry != TranspositionTable.MISS) {
+                ++tableHits;
+                if (tableMove < 0) {
+                    tableMove = TranspositionTable.move(entry);
+                }
+                if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int flag = TranspositionTable.flag(entry);
+                    if (flag == TranspositionTable.EXACT) {
+                        return score;
+                    }
+                    if (flag == TranspositionTable.LOWER) {
+                        alpha = Math.max(alpha, score);
+                    }
+                    else {
+                        beta = Math.min(beta, score);
+                    }
+                    if (alpha >= beta) {
+                        return score;
+                    }
+                }
+            }
+
+            int originalAlpha = alpha;
+            int best = -INFINITY;
+            int bestMove = -1;
+            int rows = board.getRowNumber();
+            // helpers rotate the root moves so that they start on different subtrees
+            int rotation = ply == 0 ? id : 0;
+
+            // the table move is tried first, then the rest from the center outwards
+            for (int i = -1; i < columns; i++) {
+                int column = i < 0 ? tableMove : moveOrder[(i + rotation) % columns];
+                if (column < 0 || (i >= 0 && column == tableMove)) {
+                    continue;
+                }
+                if (board.tryPutDisc(player, column) != GameBoard.MOVE_DONE) {
+                    continue;
+                }
+                int height = board.tryGetColumnHeight(column) - 1;
+                int childEval = eval + cellWeights[column * rows + height];
+                int score = -negamax(ply + 1, depth - 1, -beta, -alpha, 3 - player, -childEval);
+                board.undo();
+                if (aborted) {
+                    return 0;
+                }
+
+                if (score > best) {
+                    best = score;
+                    bestMove = column;
+                    if (score > alpha) {
+                        alpha = score;
+                        if (alpha >= beta) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            int flag = best <= originalAlpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(key, depth, flag, toTable(best, ply), bestMove);
+            if (ply == 0) {
+                rootMove = bestMove;
+            }
+            return best;
+        }
+
+        /**
+         * Has the search used up its time or node budget, or been asked to stop?
+         *
+         * @return true if the search should finish
+         */
+        private boolean outOfBudget()
+        {
+            boolean stopped = pondering ? isPonderStopped() : isSearchStopped();
+            if (id > 0) {
+                return helpersStopped || stopped;
+            }
+            if (pondering) {
+                return stopped;
+            }
+            return stopped || (nodeLimit > 0 && nodes >= nodeLimit) || System.nanoTime() >= deadline;
+        }
+
+        /**
+         * Follow the best moves stored in the transposition table from the root position,
+         * then take them back again
+         */
+        private void storePrincipalVariation()
+        {
+            int player = rootPlayer;
+            principalVariationLength = 0;
+            principalVariation[principalVariationLength++] = rootMove;
+            board.tryPutDisc(player, rootMove);
+
+            while (principalVariationLength < completedDepth && !board.isLastMoveWinning()) {
+                player = 3 - player;
+                long entry = table.probe(board.getHash());
+                int move = entry == TranspositionTable.MISS ? -1 : TranspositionTable.move(entry);
+                if (move < 0 || board.tryPutDisc(player, move) != GameBoard.MOVE_DONE) {
+                    break;
+                }
+                principalVariation[principalVariationLength++] = move;
+            }
+            for (int i = 0; i < principalVariationLength; i++) {
+                board.undo();
+            }
+        }
+    }
+}
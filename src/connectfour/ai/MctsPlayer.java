@@ -0,0 +1,552 @@
+package connectfour.ai;
+
+import connectfour.engine.GameBoard;
+import connectfour.engine.Player;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computer player that picks moves with Monte Carlo tree search (UCT). Each simulation walks
+ * down the tree to a leaf, adds the leaf's moves, finishes the game with random moves and
+ * counts the result along the path. The move played is the one simulated most often.
+ * <p>
+ * The cost of a simulation does not depend on how far ahead the game is searched, so unlike
+ * alpha-beta it still plays sensibly on very large boards.
+ * <p>
+ * With more than one thread every thread grows its own tree from the same position
+ * (root parallelism), and the visit counts of the root moves are added together at the end.
+ * Trees are kept in primitive arrays allocated once, and simulations are played and taken
+ * back on a scratch board, so nothing is allocated while searching.
+ */
+public class MctsPlayer extends Player
+{
+    public static final long DEFAULT_MOVE_MILLIS = 1000;
+    public static final int  DEFAULT_TREE_BITS   = 20;
+
+    /**
+     * allowed range of log2 of the tree size. The smallest tree still holds the root and a
+     * child for every column of the widest board; Java arrays hold fewer than 2^31 nodes.
+     */
+    public static final int MIN_TREE_BITS = 11;
+    public static final int MAX_TREE_BITS = 30;
+
+    /**
+     * weight of exploring less simulated moves against playing the best looking ones
+     */
+    private static final double EXPLORATION = 1.41;
+
+    /**
+     * how often (in simulations) a search checks the clock
+     */
+    private static final int BUDGET_CHECK_INTERVAL = 16;
+
+    /**
+     * what is known about the position a tree node leads to
+     */
+    private static final byte UNKNOWN = 0;
+    private static final byte OPEN    = 1;
+    private static final byte WIN     = 2;
+    private static final byte DRAW    = 3;
+
+    private final long moveMillis;
+    private final long maxPlayouts;
+    private final int  treeBits;
+    private final int  threads;
+
+    private SearchTree[]    trees;
+    private ExecutorService helperPool;
+    private Future<?>[]     helperResults;
+
+    /**
+     * simulations of each root move, added up over all trees
+     */
+    private long[] columnVisits;
+
+    private volatile long    deadline;
+    private volatile boolean helpersStopped;
+
+    /**
+     * chooseMove and stop calls so far. The n-th search runs while fewer than n stops have
+     * come, so a stop that comes before its search has started is not lost.
+     */
+    private       long       searchCount;
+    private final AtomicLong searchStops = new AtomicLong();
+
+    /**
+     * stats of the last search
+     */
+    private long lastPlayouts;
+    private long lastNanos;
+    private int  lastTreeSize;
+
+    /**
+     * Create a single threaded player that simulates for the default time per move
+     *
+     * @param playerNum - the id for the player
+     */
+    public MctsPlayer(int playerNum)
+    {
+        this(playerNum, DEFAULT_MOVE_MILLIS, 0, DEFAULT_TREE_BITS, 1);
+    }
+
+    /**
+     * Create a player that simulates until its time or simulation budget runs out
+     *
+     * @param playerNum - the id for the player
+     * @param moveMillis - wall-clock budget per move in milliseconds, 0 for no time limit
+     * @param maxPlayouts - simulations per move over all threads, 0 for no limit
+     * @param treeBits - log2 of the number of tree nodes each thread can keep. Once the
+     *                   tree is full the simulations go on without growing it.
+     * @param threads - number of search threads, each with its own tree
+     *
+     * @throws IllegalArgumentException if there is neither a time nor a simulation budget
+     */
+    public MctsPlayer(int playerNum, long moveMillis, long maxPlayouts, int treeBits, int threads)
+    {
+        super(playerNum);
+        checkBudget(moveMillis, maxPlayouts);
+        checkTreeBits(treeBits);
+        this.moveMillis = moveMillis;
+        this.maxPlayouts = maxPlayouts;
+        this.treeBits = treeBits;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Check that a search would end
+     *
+     * @param moveMillis - wall-clock budget per move in milliseconds, 0 for no time limit
+     * @param maxPlayouts - simulations per move, 0 for no limit
+     *
+     * @throws IllegalArgumentException if there is neither a time nor a simulation budget
+     */
+    static void checkBudget(long moveMillis, long maxPlayouts)
+    {
+        if (moveMillis <= 0 && maxPlayouts <= 0) {
+            throw new IllegalArgumentException("MCTS needs a time or playout budget");
+        }
+    }
+
+    /**
+     * Check a tree size before anything is allocated
+     *
+     * @param treeBits - log2 of the number of tree nodes
+     *
+     * @throws IllegalArgumentException if treeBits is not from MIN_TREE_BITS to MAX_TREE_BITS
+     */
+    static void checkTreeBits(int treeBits)
+    {
+        if (treeBits < MIN_TREE_BITS || treeBits > MAX_TREE_BITS) {
+            throw new IllegalArgumentException(String.format("MCTS tree must be 2^%d to 2^%d nodes, got 2^%d",
+                MIN_TREE_BITS, MAX_TREE_BITS, treeBits));
+        }
+    }
+
+    @Override
+    public boolean isComputer()
+    {
+        return true;
+    }
+
+    /**
+     * Run simulations from the board until the budget is used up and pick the column
+     * that was simulated most. The simulations are for whichever player is to move, so the
+     * same player can take either seat.
+     *
+     * @param board - the current game board, with this player to move
+     * @return the column index for the move or -1 if there are no legal moves
+     */
+    @Override
+    public int chooseMove(GameBoard board)
+    {
+        ++searchCount;
+        long start = System.nanoTime();
+        helpersStopped = false;
+        lastPlayouts = 0;
+        lastTreeSize = 0;
+        if (board.isBoardFull()) {
+            return -1;
+        }
+        // no need to simulate a win that is already there
+        int player = board.getDiscCount() % 2 + 1;
+        for (int column = 0; column < board.getColumnNumber(); column++) {
+            if (board.isWinningMove(player, column)) {
+                lastNanos = System.nanoTime() - start;
+                return column;
+            }
+        }
+
+        prepare(board);
+        deadline = moveMillis > 0 ? start + moveMillis * 1000000L : Long.MAX_VALUE;
+        long playoutsPerTree = maxPlayouts > 0 ? (maxPlayouts + threads - 1) / threads : Long.MAX_VALUE;
+
+        for (int i = 1; i < threads; i++) {
+            SearchTree helper = trees[i];
+            helperResults[i] = helperPool.submit(() -> helper.search(board, playoutsPerTree));
+        }
+        trees[0].search(board, playoutsPerTree);
+        helpersStopped = true;
+        for (int i = 1; i < threads; i++) {
+            try {
+                helperResults[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        Arrays.fill(columnVisits, 0L);
+        for (SearchTree tree : trees) {
+            tree.addRootVisits(columnVisits);
+            lastPlayouts += tree.playouts;
+            lastTreeSize += tree.nodeCount;
+        }
+        int bestMove = -1;
+        for (int column = 0; column < columnVisits.length; column++) {
+            if (board.tryGetColumnHeight(column) < board.getRowNumber()
+                && (bestMove < 0 || columnVisits[column] > columnVisits[bestMove])) {
+                bestMove = column;
+            }
+        }
+        lastNanos = System.nanoTime() - start;
+        return bestMove;
+    }
+
+    /**
+     * Ask a running search to finish. chooseMove returns the most simulated move so far.
+     * Every chooseMove call must be matched by one stop, made before, during or after the
+     * call: a stop that comes before the search starts makes it return right away, and a
+     * stop for a search that has already returned does nothing.
+     */
+    @Override
+    public void stop()
+    {
+        searchStops.incrementAndGet();
+    }
+
+    private boolean isSearchStopped()
+    {
+        return searchStops.get() >= searchCount;
+    }
+
+    /**
+     * Get the number of simulations run by the last search, over all threads
+     *
+     * @return the simulation count
+     */
+    public long getLastPlayoutCount()
+    {
+        return lastPlayouts;
+    }
+
+    /**
+     * Get the search speed of the last search
+     *
+     * @return simulations per second
+     */
+    public long getLastPlayoutsPerSecond()
+    {
+        return lastNanos == 0 ? 0 : lastPlayouts * 1000000000L / lastNanos;
+    }
+
+    /**
+     * Get the number of tree nodes the last search created, over all threads
+     *
+     * @return the node count
+     */
+    public int getLastTreeSize()
+    {
+        return lastTreeSize;
+    }
+
+    /**
+     * Get the number of threads this player searches with
+     *
+     * @return the thread count
+     */
+    public int getThreadCount()
+    {
+        return threads;
+    }
+
+    /**
+     * Size the trees for the board being searched
+     *
+     * @param board - the game board
+     */
+    private void prepare(GameBoard board)
+    {
+        if (trees != null) {
+            GameBoard prepared = trees[0].board;
+            if (prepared.getRowNumber() == board.getRowNumber() && prepared.getColumnNumber() == board.getColumnNumber()
+                && prepared.getConnectLength() == board.getConnectLength()) {
+                return;
+            }
+        }
+        trees = new SearchTree[threads];
+        for (int i = 0; i < threads; i++) {
+            trees[i] = new SearchTree(i, board);
+        }
+        columnVisits = new long[board.getColumnNumber()];
+        if (threads > 1 && helperPool == null) {
+            helperResults = new Future<?>[threads];
+            helperPool = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "mcts-helper-" + getInt());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * One search thread's tree. Node i is described by the i-th element of each array and
+     * its children are the childCount[i] nodes from firstChild[i]. Node 0 is the root.
+     */
+    private class SearchTree
+    {
+        private final int id;
+
+        /**
+         * scratch copy of the root position. Simulations play their moves on it and take
+         * them all back when they are done.
+         */
+        private final GameBoard board;
+
+        private final int[]   firstChild;
+        private final short[] childCount;
+        private final short[] move;
+        private final int[]   visits;
+
+        /**
+         * twice the number of wins for the player who made the node's move, plus one for each draw
+         */
+        private final int[]  score;
+        private final byte[] outcome;
+
+        /**
+         * nodes visited by the current simulation, root first
+         */
+        private final int[] path;
+
+        private int  nodeCount;
+        private int  movesPlayed;
+        private long random;
+        private long playouts;
+
+        SearchTree(int id, GameBoard root)
+        {
+            this.id = id;
+            board = new GameBoard(root.getRowNumber(), root.getColumnNumber(), root.getConnectLength());
+            int capacity = 1 << treeBits;
+            firstChild = new int[capacity];
+            childCount = new short[capacity];
+            move = new short[capacity];
+            visits = new int[capacity];
+            score = new int[capacity];
+            outcome = new byte[capacity];
+            path = new int[root.getRowNumber() * root.getColumnNumber() + 1];
+            // xorshift never leaves the state 0
+            random = (System.nanoTime() ^ (0x9E3779B97F4A7C15L * (id + 1))) | 1L;
+        }
+
+        /**
+         * Grow a new tree from the position until the budget is used up
+         *
+         * @param root - the root position, with the player to move
+         * @param maxPlayouts - most simulations to run
+         */
+        void search(GameBoard root, long maxPlayouts)
+        {
+            board.copyFrom(root);
+            int player = root.getDiscCount() % 2 + 1;
+            nodeCount = 1;
+            childCount[0] = 0;
+            visits[0] = 0;
+            outcome[0] = OPEN;
+            playouts = 0;
+
+            while (playouts < maxPlayouts) {
+                // the main thread always runs one simulation so that there is a move to play
+                if (playouts % BUDGET_CHECK_INTERVAL == 0 && playouts > 0 && outOfBudget()) {
+                    break;
+                }
+                simulate(player);
+                ++playouts;
+            }
+        }
+
+        /**
+         * Add the simulations of each root move to a total per column
+         *
+         * @param totals - simulations per column
+         */
+        void addRootVisits(long[] totals)
+        {
+            for (int child = firstChild[0]; child < firstChild[0] + childCount[0]; child++) {
+                totals[move[child]] += visits[child];
+            }
+        }
+
+        /**
+         * Run one simulation: select a leaf, add its children, finish the game at random
+         * and count the result on the path
+         *
+         * @param rootPlayer - the player to move at the root
+         */
+        private void simulate(int rootPlayer)
+        {
+            int node = 0;
+            int length = 0;
+            path[length++] = node;
+            int player = rootPlayer;
+            int winner = -1;
+            movesPlayed = 0;
+
+            while (true) {
+                if (childCount[node] == 0 && ((node != 0 && visits[node] == 0) || !expand(node))) {
+                    break;
+                }
+                node = select(node);
+                board.tryPutDisc(player, move[node]);
+                ++movesPlayed;
+                path[length++] = node;
+                if (outcome[node] == UNKNOWN) {
+                    outcome[node] = board.isLastMoveWinning() ? WIN : board.isBoardFull() ? DRAW : OPEN;
+                }
+                if (outcome[node] == WIN) {
+                    winner = player;
+                    break;
+                }
+                if (outcome[node] == DRAW) {
+                    winner = 0;
+                    break;
+                }
+                player = 3 - player;
+            }
+            if (winner < 0) {
+                winner = playout(player);
+            }
+
+            // the player who made the move into path[i] is the root player for odd i
+            int mover = 3 - rootPlayer;
+            for (int i = 0; i < length; i++) {
+                int n = path[i];
+                ++visits[n];
+                score[n] += winner == mover ? 2 : winner == 0 ? 1 : 0;
+                mover = 3 - mover;
+            }
+            for (int i = 0; i < movesPlayed; i++) {
+                board.undo();
+            }
+        }
+
+        /**
+         * Add a child for every legal move of a leaf
+         *
+         * @param node - the leaf
+         * @return false if the tree is full or the node has no legal moves
+         */
+        private boolean expand(int node)
+        {
+            int columns = board.getColumnNumber();
+            if (nodeCount + columns > firstChild.length) {
+                return false;
+            }
+            int first = nodeCount;
+            int rows = board.getRowNumber();
+            for (int column = 0; column < columns; column++) {
+                if (board.tryGetColumnHeight(column) < rows) {
+                    move[nodeCount] = (short) column;
+                    childCount[nodeCount] = 0;
+                    visits[nodeCount] = 0;
+                    score[nodeCount] = 0;
+                    outcome[nodeCount] = UNKNOWN;
+                    ++nodeCount;
+                }
+            }
+            firstChild[node] = first;
+            childCount[node] = (short) (nodeCount - first);
+            return nodeCount > first;
+        }
+
+        /**
+         * Pick the child with the best upper confidence bound. Children that were never
+         * simulated and moves known to win are picked first.
+         *
+         * @param node - a node with children
+         * @return the child
+         */
+        private int select(int node)
+        {
+            double logVisits = Math.log(visits[node]);
+            int best = firstChild[node];
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int child = firstChild[node]; child < firstChild[node] + childCount[node]; child++) {
+                if (visits[child] == 0 || outcome[child] == WIN) {
+                    return child;
+                }
+                double value = score[child] / (2.0 * visits[child]) + EXPLORATION * Math.sqrt(logVisits / visits[child]);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Play random moves until the game is over
+         *
+         * @param player - the player to move
+         * @return the winning player number or 0 for a draw
+         */
+        private int playout(int player)
+        {
+            int columns = board.getColumnNumber();
+            int rows = board.getRowNumber();
+            while (true) {
+                int column = nextInt(columns);
+                while (board.tryGetColumnHeight(column) == rows) {
+                    column = column + 1 == columns ? 0 : column + 1;
+                }
+                board.tryPutDisc(player, column);
+                ++movesPlayed;
+                if (board.isLastMoveWinning()) {
+                    return player;
+                }
+                if (board.isBoardFull()) {
+                    return 0;
+                }
+                player = 3 - player;
+            }
+        }
+
+        /**
+         * xorshift random number generator
+         *
+         * @param bound - the number of possible values
+         * @return a value from 0 to bound - 1
+         */
+        private int nextInt(int bound)
+        {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            return (int) (((random >>> 32) * bound) >>> 32);
+        }
+
+        private boolean outOfBudget()
+        {
+            if (id > 0) {
+                return helpersStopped || isSearchStopped();
+            }
+            return isSearchStopped() || System.nanoTime() >= deadline;
+        }
+    }
+}
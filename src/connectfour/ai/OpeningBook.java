@@ -0,0 +1,173 @@
+package connectfour.ai;
+
+import connectfour.engine.GameBoard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Best moves and scores of early positions, read from a file made by OpeningBookGenerator.
+ * The file is memory mapped rather than read into the heap, so opening a book is instant
+ * and every process on a machine shares the same pages. Lookups are a binary search over
+ * the mapped entries and allocate nothing. A book is read only and can be shared by any
+ * number of players and threads.
+ * <p>
+ * File layout (big endian): a 32 byte header of magic, version, rows, columns, connect length,
+ * 4 unused bytes and the entry count (long), then the entries sorted by position key. Each
+ * entry is the canonical hash of the position (long), the best move (short) and its score
+ * (int). Moves are stored for the orientation of the position whose hash is the canonical one,
+ * and are mirrored on lookup when the board is the other orientation.
+ */
+public class OpeningBook
+{
+    /**
+     * returned by probe when the position is not in the book
+     */
+    public static final long MISS = -1L;
+
+    private static final int MAGIC       = 0x43344F42;
+    private static final int VERSION     = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE  = 14;
+
+    private final ByteBuffer entries;
+    private final int        rows;
+    private final int        columns;
+    private final int        connectLength;
+    private final int        count;
+
+    private OpeningBook(ByteBuffer entries, int rows, int columns, int connectLength, int count)
+    {
+        this.entries = entries;
+        this.rows = rows;
+        this.columns = columns;
+        this.connectLength = connectLength;
+        this.count = count;
+    }
+
+    /**
+     * Map a book file into memory
+     *
+     * @param path - the book file
+     * @return the book
+     *
+     * @throws IOException if the file cannot be read or is not a book
+     */
+    public static OpeningBook open(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not an opening book: " + path);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an opening book: " + path);
+            }
+            long count = buffer.getLong(24);
+            if (count < 0 || HEADER_SIZE + count * ENTRY_SIZE != size) {
+                throw new IOException("Opening book is truncated: " + path);
+            }
+            return new OpeningBook(buffer, buffer.getInt(8), buffer.getInt(12), buffer.getInt(16), (int) count);
+        }
+    }
+
+    /**
+     * Write a book file. The entries do not need to be sorted.
+     *
+     * @param path - the file to write
+     * @param board - a board of the size the book is for
+     * @param hashes - canonical hash of each position
+     * @param moves - best move of each position, for the orientation with the canonical hash
+     * @param scores - score of each best move
+     * @param count - number of entries
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, GameBoard board, long[] hashes, int[] moves, int[] scores, int count)
+        throws IOException
+    {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(board.getRowNumber()).putInt(board.getColumnNumber())
+            .putInt(board.getConnectLength()).putInt(0).putLong(count);
+        for (int i : order) {
+            buffer.putLong(hashes[i]).putShort((short) moves[i]).putInt(scores[i]);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Look up a position
+     *
+     * @param board - the position, with any player to move
+     * @return the packed move and score, or MISS if the position is not in the book or the
+     *         board is not the size the book was made for
+     */
+    public long probe(GameBoard board)
+    {
+        if (board.getRowNumber() != rows || board.getColumnNumber() != columns
+            || board.getConnectLength() != connectLength) {
+            return MISS;
+        }
+        long key = board.getCanonicalHash();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = HEADER_SIZE + middle * ENTRY_SIZE;
+            long hash = entries.getLong(offset);
+            if (hash < key) {
+                low = middle + 1;
+            }
+            else if (hash > key) {
+                high = middle - 1;
+            }
+            else {
+                int move = entries.getShort(offset + 8);
+                if (board.getHash() != key) {
+                    move = columns - 1 - move;
+                }
+                return (long) move << 32 | (entries.getInt(offset + 10) & 0xffffffffL);
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * get the number of positions in the book
+     *
+     * @return number of positions
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    public static int move(long entry)
+    {
+        return (int) (entry >>> 32);
+    }
+
+    public static int score(long entry)
+    {
+        return (int) entry;
+    }
+}
@@ -0,0 +1,141 @@
+package connectfour.ai;
+
+import connectfour.engine.Player;
+
+public class PlayerFactory
+{
+    private PlayerFactory()
+    {
+    }
+
+    /**
+     * Create a player from a short description.
+     * "human" is a player that moves through the GUI, "ai" is the alpha-beta computer
+     * player with the default time budget, "ai:N" searches N moves ahead and "ai:N:MS"
+     * searches up to N moves ahead (0 for no limit) for at most MS milliseconds per move.
+     * "ai:N:MS:T" does the same search on T threads, and "ai:N:MS:T:B" also sets the
+     * transposition table to 2^B entries (16 bytes each, B from 1 to 30), which keeps memory
+     * down when many players are created at once.
+     * "mcts" is the Monte Carlo tree search player with the default time budget, and
+     * "mcts:MS[:PLAYOUTS[:T[:B]]]" simulates for at most MS milliseconds (0 for no limit) and
+     * PLAYOUTS games (0 for no limit) per move on T threads, each with a tree of 2^B nodes
+     * (B from 11 to 30).
+     *
+     * @param playerNum - the id for the player
+     * @param spec - the kind of player to create
+     * @return the new player
+     *
+     * @throws IllegalArgumentException if the description is not recognised
+     */
+    public static Player create(int playerNum, String spec)
+    {
+        return create(playerNum, spec, null);
+    }
+
+    /**
+     * Check a player description without creating the player, which for computer players
+     * would allocate its search tables
+     *
+     * @param spec - the kind of player, as given to create
+     * @return true if the description is a computer player
+     *
+     * @throws IllegalArgumentException if the description is not recognised
+     */
+    public static boolean isComputer(String spec)
+    {
+        return !Spec.parse(spec).type.equals("human");
+    }
+
+    /**
+     * Create a player from a short description. Alpha-beta players play from the
+     * opening book while the game is in it.
+     *
+     * @param playerNum - the id for the player
+     * @param spec - the kind of player to create
+     * @param openingBook - the book for alpha-beta players, or null for none
+     * @return the new player
+     *
+     * @throws IllegalArgumentException if the description is not recognised
+     */
+    public static Player create(int playerNum, String spec, OpeningBook openingBook)
+    {
+        Spec parsed = Spec.parse(spec);
+        switch (parsed.type) {
+            case "ai":
+                AlphaBetaPlayer player = new AlphaBetaPlayer(playerNum, parsed.depth, parsed.millis, 0, parsed.bits,
+                    parsed.threads);
+                player.setOpeningBook(openingBook);
+                return player;
+            case "mcts":
+                return new MctsPlayer(playerNum, parsed.millis, parsed.playouts, parsed.bits, parsed.threads);
+            default:
+                return new Player(playerNum);
+        }
+    }
+
+    /**
+     * A player description taken apart and checked, without creating the player
+     */
+    private static class Spec
+    {
+        private final String type;
+        private       int    depth;
+        private       long   millis;
+        private       long   playouts;
+        private       int    threads = 1;
+        private       int    bits;
+
+        private Spec(String type)
+        {
+            this.type = type;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the description is not recognised
+         */
+        static Spec parse(String spec)
+        {
+            String[] parts = spec.split(":");
+            Spec parsed = new Spec(parts[0]);
+            try {
+                switch (parts[0]) {
+                    case "human":
+                        checkParts(spec, parts, 1);
+                        break;
+                    case "ai":
+                        // "ai" alone has a time budget, "ai:N" only a depth limit
+                        checkParts(spec, parts, 5);
+                        parsed.depth = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                        parsed.millis = parts.length > 2 ? Long.parseLong(parts[2])
+                            : parts.length == 1 ? AlphaBetaPlayer.DEFAULT_MOVE_MILLIS : 0;
+                        parsed.threads = parts.length > 3 ? Integer.parseInt(parts[3]) : 1;
+                        parsed.bits = parts.length > 4 ? Integer.parseInt(parts[4])
+                            : AlphaBetaPlayer.DEFAULT_TABLE_BITS;
+                        TranspositionTable.checkSizeBits(parsed.bits);
+                        break;
+                    case "mcts":
+                        checkParts(spec, parts, 5);
+                        parsed.millis = parts.length > 1 ? Long.parseLong(parts[1]) : MctsPlayer.DEFAULT_MOVE_MILLIS;
+                        parsed.playouts = parts.length > 2 ? Long.parseLong(parts[2]) : 0;
+                        parsed.threads = parts.length > 3 ? Integer.parseInt(parts[3]) : 1;
+                        parsed.bits = parts.length > 4 ? Integer.parseInt(parts[4]) : MctsPlayer.DEFAULT_TREE_BITS;
+                        MctsPlayer.checkBudget(parsed.millis, parsed.playouts);
+                        MctsPlayer.checkTreeBits(parsed.bits);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown player type: " + spec);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number in player type: " + spec, e);
+            }
+            return parsed;
+        }
+
+        private static void checkParts(String spec, String[] parts, int maxParts)
+        {
+            if (parts.length > maxParts) {
+                throw new IllegalArgumentException("Too many parts in player type: " + spec);
+            }
+        }
+    }
+}
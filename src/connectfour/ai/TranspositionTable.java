@@ -0,0 +1,167 @@
+package connectfour.ai;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size transposition table that can be shared by several search threads without locks.
+ * Each slot stores the key xor'ed with its entry next to the entry itself. A slot that was
+ * torn by two threads writing at once no longer matches its key and reads as a miss.
+ */
+public class TranspositionTable
+{
+    /**
+     * kinds of bounds a stored score can be
+     */
+    public static final int EXACT = 0;
+    public static final int LOWER = 1;
+    public static final int UPPER = 2;
+
+    /**
+     * returned by probe when the position is not in the table
+     */
+    public static final long MISS = 0L;
+
+    /**
+     * allowed range of log2 of the number of entries. Java arrays hold fewer than 2^31
+     * elements, and the index is taken from the top bits of the key with a shift that
+     * must be less than 64.
+     */
+    public static final int MIN_SIZE_BITS = 1;
+    public static final int MAX_SIZE_BITS = 30;
+
+    /**
+     * Layout of a packed entry (low bit to high bit):
+     * score (32 bits), depth (8 bits), bound flag (2 bits), generation (8 bits),
+     * best move + 1 (13 bits) and a valid bit so that no stored entry is ever 0.
+     */
+    private static final int  DEPTH_SHIFT      = 32;
+    private static final int  FLAG_SHIFT       = 40;
+    private static final int  GENERATION_SHIFT = 42;
+    private static final int  MOVE_SHIFT       = 50;
+    private static final long VALID_BIT        = 1L << 63;
+
+    private final long[] keys;
+    private final long[] entries;
+    private final int    indexShift;
+    private       int    generation;
+
+    /**
+     * Create a table with a fixed number of entries. Nothing is allocated after this.
+     *
+     * @param sizeBits - log2 of the number of entries (each entry takes 16 bytes)
+     *
+     * @throws IllegalArgumentException if sizeBits is not from MIN_SIZE_BITS to MAX_SIZE_BITS
+     */
+    public TranspositionTable(int sizeBits)
+    {
+        checkSizeBits(sizeBits);
+        keys = new long[1 << sizeBits];
+        entries = new long[1 << sizeBits];
+        indexShift = 64 - sizeBits;
+    }
+
+    /**
+     * Check a table size before anything is allocated
+     *
+     * @param sizeBits - log2 of the number of entries
+     *
+     * @throws IllegalArgumentException if sizeBits is not from MIN_SIZE_BITS to MAX_SIZE_BITS
+     */
+    public static void checkSizeBits(int sizeBits)
+    {
+        if (sizeBits < MIN_SIZE_BITS || sizeBits > MAX_SIZE_BITS) {
+            throw new IllegalArgumentException(String.format("Table size must be 2^%d to 2^%d entries, got 2^%d",
+                MIN_SIZE_BITS, MAX_SIZE_BITS, sizeBits));
+        }
+    }
+
+    /**
+     * Start a new search. Entries from earlier searches are replaced before entries from this one.
+     */
+    public void newSearch()
+    {
+        generation = (generation + 1) & 0xff;
+    }
+
+    /**
+     * Look up a position
+     *
+     * @param key - the position key
+     * @return the packed entry or MISS
+     */
+    public long probe(long key)
+    {
+        int index = index(key);
+        long entry = entries[index];
+        return entry != MISS && (keys[index] ^ entry) == key ? entry : MISS;
+    }
+
+    /**
+     * Store a search result. The slot is kept for the deepest result of the current
+     * search; results of older searches are always replaced.
+     *
+     * @param key - the position key
+     * @param depth - the depth searched below the position
+     * @param flag - EXACT, LOWER or UPPER
+     * @param score - the score of the position
+     * @param move - the best move found or -1
+     */
+    public void store(long key, int depth, int flag, int score, int move)
+    {
+        int index = index(key);
+        long old = entries[index];
+        if (old != MISS && (keys[index] ^ old) != key && generation(old) == generation && depth(old) > depth) {
+            return;
+        }
+        long entry = VALID_BIT
+            | (long) (move + 1) << MOVE_SHIFT
+            | (long) generation << GENERATION_SHIFT
+            | (long) flag << FLAG_SHIFT
+            | (long) Math.min(depth, 0xff) << DEPTH_SHIFT
+            | (score & 0xffffffffL);
+        keys[index] = key ^ entry;
+        entries[index] = entry;
+    }
+
+    /**
+     * Remove every entry from the table
+     */
+    public void clear()
+    {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(entries, MISS);
+    }
+
+    public static int score(long entry)
+    {
+        return (int) entry;
+    }
+
+    public static int depth(long entry)
+    {
+        return (int) (entry >>> DEPTH_SHIFT) & 0xff;
+    }
+
+    public static int flag(long entry)
+    {
+        return (int) (entry >>> FLAG_SHIFT) & 0x3;
+    }
+
+    public static int move(long entry)
+    {
+        return ((int) (entry >>> MOVE_SHIFT) & 0x1fff) - 1;
+    }
+
+    private static int generation(long entry)
+    {
+        return (int) (entry >>> GENERATION_SHIFT) & 0xff;
+    }
+
+    /**
+     * Zobrist hashes are already uniform, so the slot is taken from the top bits of the key
+     */
+    private int index(long key)
+    {
+        return (int) (key >>> indexShift);
+    }
+}
@@ -0,0 +1,156 @@
+package connectfour.engine;
+
+import connectfour.stats.EngineMetrics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * A single component that draws the whole game board. The discs are drawn into a back
+ * buffer as they change, so painting the component is one image copy no matter how big
+ * the board is.
+ */
+public class BoardView extends JComponent
+{
+    private static final long serialVersionUID = 3120591749204781155L;
+
+    /**
+     * Game disc images *
+     */
+    private static final String EMPTY_ICON = "img/empty.png";
+    private static final String RED_ICON   = "img/red.png";
+    private static final String BLACK_ICON = "img/black.png";
+
+    /**
+     * size of the disc images, and of a board position unless the board is too big to fit
+     */
+    public static final int IMG_SIZE = 50;
+
+    /**
+     * largest width or height the board is drawn at
+     */
+    private static final int MAX_BOARD_SIZE = 700;
+
+    /**
+     * Possible values for a disc dropped into a board column
+     * Default value is None (empty). Each value's image is decoded once and
+     * shared by every board position showing it.
+     */
+    private enum Disc
+    {
+        None(EMPTY_ICON),
+        Player1(RED_ICON),
+        Player2(BLACK_ICON);
+        private final Image image;
+
+        Disc(String imagePath) { this.image = new ImageIcon(imagePath).getImage(); }
+
+        public Image getImage() { return image; }
+    }
+
+    /**
+     * Disc values indexed by the board's player numbers. Disc.values() copies the array each call.
+     */
+    private static final Disc[] DISCS = Disc.values();
+
+    private final GameBoard board;
+    private final int       cellSize;
+    private BufferedImage   buffer;
+
+    /**
+     * Create a view of a game board
+     *
+     * @param board - the board to draw
+     */
+    public BoardView(GameBoard board)
+    {
+        this.board = board;
+        int longestSide = Math.max(board.getRowNumber(), board.getColumnNumber());
+        cellSize = Math.max(1, Math.min(IMG_SIZE, MAX_BOARD_SIZE / longestSide));
+        Dimension size = new Dimension(cellSize * board.getColumnNumber(), cellSize * board.getRowNumber());
+        setPreferredSize(size);
+        setSize(size);
+        setOpaque(true);
+    }
+
+    /**
+     * Redraw every board position, e.g. after the board was cleared for a new game
+     */
+    public void redrawAll()
+    {
+        Graphics2D g = getBuffer().createGraphics();
+        try {
+            for (int row = 0; row < board.getRowNumber(); row++) {
+                for (int column = 0; column < board.getColumnNumber(); column++) {
+                    drawCell(g, row, column);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        repaint();
+    }
+
+    /**
+     * Redraw a single board position
+     *
+     * @param column - the column of the position
+     * @param height - the height of the position in the column, 0 being the bottom
+     */
+    public void redrawCell(int column, int height)
+    {
+        int row = board.getRowNumber() - 1 - height;
+        Graphics2D g = getBuffer().createGraphics();
+        try {
+            drawCell(g, row, column);
+        } finally {
+            g.dispose();
+        }
+        repaint(column * cellSize, row * cellSize, cellSize, cellSize);
+    }
+
+    /**
+     * Find the column under a point of the component
+     *
+     * @param x - x coordinate within the component
+     * @param y - y coordinate within the component
+     * @return the column index or GameBoard.OUTSIDE_POS if the point is not on the board
+     */
+    public int columnAt(int x, int y)
+    {
+        if (x < 0 || y < 0 || y >= cellSize * board.getRowNumber()) {
+            return GameBoard.OUTSIDE_POS;
+        }
+        int column = x / cellSize;
+        return board.isValidColumn(column) ? column : GameBoard.OUTSIDE_POS;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        EngineMetrics metrics = EngineMetrics.getInstance();
+        boolean timed = metrics.isTiming();
+        long start = timed ? System.nanoTime() : 0;
+        g.drawImage(getBuffer(), 0, 0, null);
+        if (timed) {
+            metrics.recordPaint(System.nanoTime() - start);
+        }
+    }
+
+    private void drawCell(Graphics2D g, int row, int column)
+    {
+        Image image = DISCS[board.tryGetBoardPos(row, column)].getImage();
+        g.drawImage(image, column * cellSize, row * cellSize, cellSize, cellSize, null);
+    }
+
+    private BufferedImage getBuffer()
+    {
+        if (buffer == null) {
+            buffer = new BufferedImage(cellSize * board.getColumnNumber(), cellSize * board.getRowNumber(),
+                BufferedImage.TYPE_INT_RGB);
+            redrawAll();
+        }
+        return buffer;
+    }
+}
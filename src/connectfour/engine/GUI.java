@@ -1,43 +1,70 @@
 package connectfour.engine;
 
+import connectfour.ai.AlphaBetaPlayer;
+import connectfour.ai.MctsPlayer;
+import connectfour.records.GameRecordWriter;
+import connectfour.stats.EngineMetrics;
+
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GUI extends MouseAdapter
 {
-    /**
-     * Game disc icons *
-     */
-    private static final String EMPTY_ICON = "img/empty.png";
-    private static final String RED_ICON   = "img/red.png";
-    private static final String BLACK_ICON = "img/black.png";
-
-    private static final int        IMG_SIZE = 50;
+    private static final int        IMG_SIZE = BoardView.IMG_SIZE;
     private              GameEngine engine   = null;
     private JFrame frame;
 
     /**
-     * array representation of the board of the board's images.
-     * Each slot tells what kind of image is in the slot *
+     * the component that draws the board and tells which column was clicked
      */
-    private JLabel[][] board = null;
+    private BoardView boardView;
     private JLabel score;
     private JLabel currentTurn = null;
+    private JLabel searchInfo  = null;
     private JMenuBar menuBar;
 
+    // reused by updateScoreText
+    private final long[] playerScores = new long[2];
+
+    // set once the players decline to play another game
+    private boolean noMoreGames = false;
+
     /**
-     * Possible values for a disc dropped into a board column
-     * Default value is None (empty)
+     * computer players think on this thread so that the window stays responsive.
+     * Moves and ponders run one at a time, in the order they were asked for.
      */
-    private enum Disc
-    {
-        None,
-        Player1,
-        Player2
-    }
+    private final ExecutorService computerThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "computer-player");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * the computer player whose move is being searched, or null. Only used on the EDT.
+     */
+    private Player thinkingPlayer = null;
+
+    /**
+     * counts the computer moves asked for. A finished search whose number is no longer
+     * the latest was cancelled and its move is ignored. Only used on the EDT.
+     */
+    private int moveRequest = 0;
+
+    /**
+     * the computer player thinking on the human's time, or null. Only used on the EDT.
+     */
+    private Player ponderingPlayer = null;
+
+    /**
+     * where finished games are saved, or null
+     */
+    private GameRecordWriter recordWriter = null;
 
     /**
      * Create a new graphical representation of the game. In other words,
@@ -47,6 +74,19 @@ public class GUI extends MouseAdapter
      * @param p2 - player 2
      */
     public GUI(Player p1, Player p2)
+    {
+        this(p1, p2, new GameBoard());
+    }
+
+    /**
+     * Create the graphical interface for playing a game on a board of any size.
+     * Boards too big for the screen are drawn with smaller discs.
+     *
+     * @param p1 - player 1
+     * @param p2 - player 2
+     * @param board - the empty board to play on
+     */
+    public GUI(Player p1, Player p2, GameBoard board)
     {
         frame = new JFrame();
         frame.setTitle("Connect Four!");
@@ -54,19 +94,44 @@ public class GUI extends MouseAdapter
         menuBar = new JMenuBar();
         frame.setLayout(null);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        engine = GameEngine.getInstance(p1, p2);
+        engine = new GameEngine(p1, p2, board);
+        boardView = new BoardView(engine.getBoard());
+        currentTurn = new JLabel();
+        searchInfo = new JLabel();
         createMenu();
     }
 
     /**
-     * Start up the game by setting the board boundary, loading the images
+     * Save every finished game to a game record file
+     *
+     * @param recordWriter - the file to add games to, or null to not save games
+     */
+    public void setRecordWriter(GameRecordWriter recordWriter)
+    {
+        this.recordWriter = recordWriter;
+    }
+
+    /**
+     * Start up the game by laying out the board and labels once
      * and adding the proper input listeners.
      */
     public void startGame()
     {
+        int labelX = boardView.getWidth() + IMG_SIZE;
+        boardView.setLocation(0, 0);
+        currentTurn.setBounds(labelX, 0, 200, 20);
+        searchInfo.setBounds(labelX, 25, 350, 20);
+        score.setBounds(labelX + 4 * IMG_SIZE, 0, 200, 20);
+        frame.getContentPane().add(boardView);
+        frame.getContentPane().add(currentTurn);
+        frame.getContentPane().add(searchInfo);
+        frame.getContentPane().add(score);
+
         initBoard();
-        frame.setSize(800, IMG_SIZE * 9);
-        frame.addMouseListener(this);
+        frame.setSize(labelX + 8 * IMG_SIZE, boardView.getHeight() + 2 * IMG_SIZE);
+        frame.setVisible(true);
+        boardView.addMouseListener(this);
+        playComputerMoves();
     }
 
     /**
@@ -79,9 +144,17 @@ public class GUI extends MouseAdapter
         exitItem.addActionListener(new ExitApp(frame));
         file.add(exitItem);
         menuBar.add(file);
+        JMenu edit = new JMenu("Edit");
+        JMenuItem undoItem = new JMenuItem("Undo");
+        undoItem.addActionListener(new UndoMove());
+        edit.add(undoItem);
+        JMenuItem redoItem = new JMenuItem("Redo");
+        redoItem.addActionListener(new RedoMove());
+        edit.add(redoItem);
+        menuBar.add(edit);
         JMenu help = new JMenu("Help");
         JMenuItem helpItem = new JMenuItem("How to Play");
-        helpItem.addActionListener(new HelpMenu(frame));
+        helpItem.addActionListener(new HelpMenu(frame, engine.getConnectLength()));
         helpItem.setSize(300, 200);
         help.add(helpItem);
         menuBar.add(help);
@@ -89,27 +162,20 @@ public class GUI extends MouseAdapter
     }
 
     /**
-     * Update the board locations with the proper images after a new
-     * disc is added to the board.
+     * Redraw the board location of the last disc added to the board.
+     * Only that one position changes on each move.
      */
     public void updateBoard()
     {
-        int[][] a = engine.getBoard().getBoardArray();
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[0].length; j++) {
-                Disc pos = Disc.values()[a[i][j]];
-                switch (pos) {
-                    case None:
-                        board[i][j].setIcon(new ImageIcon(EMPTY_ICON ));
-                        break;
-                    case Player1:
-                        board[i][j].setIcon(new ImageIcon(RED_ICON));
-                        break;
-                    case Player2:
-                        board[i][j].setIcon(new ImageIcon(BLACK_ICON));
-                        break;
-                }
-            }
+        EngineMetrics metrics = EngineMetrics.getInstance();
+        boolean timed = metrics.isTiming();
+        long start = timed ? System.nanoTime() : 0;
+        int column = engine.getLastMove();
+        if (column != GameBoard.NO_MOVE) {
+            boardView.redrawCell(column, engine.getBoard().tryGetColumnHeight(column) - 1);
+        }
+        if (timed) {
+            metrics.recordBoardUpdate(System.nanoTime() - start);
         }
     }
 
@@ -128,7 +194,6 @@ public class GUI extends MouseAdapter
 
         if (playAgain == JOptionPane.YES_OPTION) {
             initBoard();
-            updateBoard();
 
             return false;
         }
@@ -137,10 +202,32 @@ public class GUI extends MouseAdapter
 
     public void updateScoreText()
     {
-        int[] playerScores = engine.getScore();
+        engine.getScore(playerScores);
         score.setText(String.format("Score: %s - %s", playerScores[0], playerScores[1]));
     }
 
+    /**
+     * Show how much work the computer player did for its last move
+     *
+     * @param player - the computer player that just moved
+     */
+    public void updateSearchText(AlphaBetaPlayer player)
+    {
+        searchInfo.setText(String.format("Player %d searched %,d positions (%,d/s)",
+            player.getInt(), player.getLastNodeCount(), player.getLastNodesPerSecond()));
+    }
+
+    /**
+     * Show how many games the Monte Carlo player simulated for its last move
+     *
+     * @param player - the computer player that just moved
+     */
+    public void updateSearchText(MctsPlayer player)
+    {
+        searchInfo.setText(String.format("Player %d simulated %,d games (%,d/s)",
+            player.getInt(), player.getLastPlayoutCount(), player.getLastPlayoutsPerSecond()));
+    }
+
     public void updateTurnText(Player currentPlayer)
     {
         currentPlayer = currentPlayer == null ? new Player(1) : currentPlayer;
@@ -158,67 +245,181 @@ public class GUI extends MouseAdapter
      */
     public boolean putDisc(int columnNumber) throws OutsideBoardException
     {
-        boolean putIsDone = engine.putDisc(new Move(columnNumber));
+        int status = dropDisc(columnNumber);
+        if (status == GameBoard.MOVE_OUTSIDE_BOARD) {
+            throw new OutsideBoardException();
+        }
+        return status == GameBoard.MOVE_DONE;
+    }
+
+    /**
+     * Determine where the mouse was just clicked and put a disc in that column
+     *
+     * @param mouseEvent the mouse event
+     */
+    @Override
+    public void mousePressed(MouseEvent mouseEvent)
+    {
+        // get the column that was clicked and putDisc down the correct image
+        int column = boardView.columnAt(mouseEvent.getX(), mouseEvent.getY());
+        if (column != GameBoard.OUTSIDE_POS && !engine.getCurrentPlayer().isComputer()) {
+            dropDisc(column);
+            playComputerMoves();
+        }
+    }
+
+    /**
+     * Start the search for a computer player's move if it is a computer player's turn.
+     * The search runs on the computer thread with its own copy of the board, and its move
+     * is played on the EDT when it is done. Every search is matched by one stop, from
+     * cancelComputerMove or once its move arrives, so a search that is cancelled before it
+     * starts still runs and returns at once. On a human player's turn a computer opponent
+     * ponders instead.
+     */
+    private void playComputerMoves()
+    {
+        Player player = engine.getCurrentPlayer();
+        if (noMoreGames || thinkingPlayer != null || engine.isGameOver() != null) {
+            stopPondering();
+            return;
+        }
+        if (!player.isComputer()) {
+            startPondering();
+            return;
+        }
+        stopPondering();
+        thinkingPlayer = player;
+        int request = ++moveRequest;
+        GameBoard position = new GameBoard(engine.getBoard());
+        computerThread.execute(() -> {
+            int column = player.chooseMove(position);
+            SwingUtilities.invokeLater(() -> finishComputerMove(request, player, column));
+        });
+    }
+
+    /**
+     * Play the move a computer player picked, unless the search was cancelled
+     *
+     * @param request - the number of the move request the search was for
+     * @param player - the computer player
+     * @param column - the column it picked
+     */
+    private void finishComputerMove(int request, Player player, int column)
+    {
+        if (request != moveRequest) {
+            return;
+        }
+        thinkingPlayer = null;
+        player.stop();
+        if (player instanceof AlphaBetaPlayer) {
+            updateSearchText((AlphaBetaPlayer) player);
+        }
+        else if (player instanceof MctsPlayer) {
+            updateSearchText((MctsPlayer) player);
+        }
+        if (dropDisc(column) == GameBoard.MOVE_DONE) {
+            playComputerMoves();
+        }
+    }
+
+    /**
+     * Stop the search for a computer player's move, if there is one, and ignore its result
+     */
+    private void cancelComputerMove()
+    {
+        if (thinkingPlayer != null) {
+            ++moveRequest;
+            thinkingPlayer.stop();
+            thinkingPlayer = null;
+        }
+    }
+
+    /**
+     * Let a computer player think on its opponent's time, if the opponent is human
+     */
+    private void startPondering()
+    {
+        Player opponent = engine.getOtherPlayer();
+        if (ponderingPlayer != null || !opponent.isComputer()) {
+            return;
+        }
+        ponderingPlayer = opponent;
+        GameBoard position = new GameBoard(engine.getBoard());
+        computerThread.execute(() -> opponent.ponder(position));
+    }
+
+    /**
+     * Stop a computer player thinking on its opponent's time. What it learned is kept
+     * for its next move.
+     */
+    private void stopPondering()
+    {
+        if (ponderingPlayer != null) {
+            ponderingPlayer.stopPondering();
+            ponderingPlayer = null;
+        }
+    }
+
+    /**
+     * Add the player's disc to the game board and update the display.
+     *
+     * @param columnNumber - the column the disc should be added to
+     * @return the GameBoard move status for the column
+     */
+    private int dropDisc(int columnNumber)
+    {
+        int status = engine.tryPutDisc(columnNumber);
         updateTurnText(engine.getCurrentPlayer());
 
-        if (putIsDone) {
+        if (status == GameBoard.MOVE_DONE) {
             Player p = engine.isGameOver();
             updateBoard();
             updateScoreText();
             if (p != null) {
-                boolean noMoreGames = gameOver(p);
+                recordGame(p);
+                noMoreGames = gameOver(p);
 
                 if (noMoreGames) {
-                    frame.removeMouseListener(this);
+                    boardView.removeMouseListener(this);
                 }
             }
         }
-        return putIsDone;
+        return status;
     }
 
     /**
-     * Determine where the mouse was just clicked and put a disc in that column
+     * Save the finished game, if games are being saved. The file is flushed right away
+     * so that the game is kept even if the window is closed.
      *
-     * @param mouseEvent the mouse event
+     * @param winner - the game winner, or the player with number zero for a draw
      */
-    @Override
-    public void mousePressed(MouseEvent mouseEvent)
+    private void recordGame(Player winner)
     {
+        if (recordWriter == null) {
+            return;
+        }
         try {
-            // get the column that was clicked and putDisc down the correct image
-            if (mouseEvent.getY() < IMG_SIZE * (engine.getRowNumber() + 0.5f) &&
-                mouseEvent.getX() < IMG_SIZE * engine.getColumnNumber()) {
-                putDisc(mouseEvent.getX() / IMG_SIZE);
-            }
-        } catch (OutsideBoardException ignored) {
+            recordWriter.write(engine.getBoard(), winner.getInt());
+            recordWriter.flush();
+        } catch (IOException e) {
+            recordWriter = null;
+            JOptionPane.showMessageDialog(frame, "Could not save the game: " + e.getMessage(), "Error",
+                JOptionPane.ERROR_MESSAGE);
         }
     }
 
     /**
-     * Initialize the board. Set all board positions to empty and load
-     * the empty image icon for each position.
+     * Initialize the board. Set all board positions to empty and redraw
+     * the board in a single repaint.
      */
     private void initBoard()
     {
+        cancelComputerMove();
+        stopPondering();
         engine.clearBoard();
-        frame.getContentPane().removeAll();
-        board = new JLabel[engine.getRowNumber()][engine.getColumnNumber()];
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[0].length; j++) {
-                board[i][j] = new JLabel();
-                board[i][j].setBounds(j * IMG_SIZE, i * IMG_SIZE, IMG_SIZE, IMG_SIZE);
-                board[i][j].setIcon(new ImageIcon(EMPTY_ICON));
-                frame.getContentPane().add(board[i][j]);
-            }
-        }
-        currentTurn = new JLabel();
-        currentTurn.setBounds(8 * IMG_SIZE, 0, 200, 20);
-        score.setBounds(12 * IMG_SIZE, 0, 200, 20);
+        boardView.redrawAll();
         updateScoreText();
         updateTurnText(null);
-        frame.getContentPane().add(currentTurn);
-        frame.getContentPane().add(score);
-        frame.setVisible(true);
     }
 
     /**
@@ -244,16 +445,117 @@ public class GUI extends MouseAdapter
         }
     }
 
+    /**
+     * Refresh the board and labels after moves were taken back or played again. The players
+     * can continue if they had already stopped playing, and stop again when the game's end
+     * is played again.
+     */
+    private void afterHistoryChange()
+    {
+        updateScoreText();
+        updateTurnText(engine.getCurrentPlayer());
+        boolean over = engine.isGameOver() != null;
+        if (noMoreGames && !over) {
+            noMoreGames = false;
+            boardView.addMouseListener(this);
+        }
+        else if (!noMoreGames && over) {
+            noMoreGames = true;
+            boardView.removeMouseListener(this);
+        }
+        playComputerMoves();
+    }
+
+    /**
+     * Context Menu for taking back the last move. Moves by computer players are taken back
+     * too, so that it is a human player's turn again.
+     */
+    private class UndoMove implements ActionListener
+    {
+        @Override
+        public void actionPerformed(ActionEvent e)
+        {
+            cancelComputerMove();
+            stopPondering();
+            if (!undoMove()) {
+                afterHistoryChange();
+                return;
+            }
+            // keep going until a human player is to move
+            while (engine.getCurrentPlayer().isComputer()) {
+                if (!undoMove()) {
+                    break;
+                }
+            }
+            afterHistoryChange();
+        }
+
+        /**
+         * Take back one move and clear its board location
+         *
+         * @return true if a move was taken back
+         */
+        private boolean undoMove()
+        {
+            int column = engine.getLastMove();
+            if (!engine.undo()) {
+                return false;
+            }
+            boardView.redrawCell(column, engine.getBoard().tryGetColumnHeight(column));
+            return true;
+        }
+    }
+
+    /**
+     * Context Menu for playing again moves that were taken back
+     */
+    private class RedoMove implements ActionListener
+    {
+        @Override
+        public void actionPerformed(ActionEvent e)
+        {
+            cancelComputerMove();
+            stopPondering();
+            if (!redoMove()) {
+                afterHistoryChange();
+                return;
+            }
+            // keep going until a human player is to move
+            while (engine.getCurrentPlayer().isComputer()) {
+                if (!redoMove()) {
+                    break;
+                }
+            }
+            afterHistoryChange();
+        }
+
+        /**
+         * Play one move again and show its disc
+         *
+         * @return true if a move was played again
+         */
+        private boolean redoMove()
+        {
+            if (!engine.redo()) {
+                return false;
+            }
+            updateBoard();
+            return true;
+        }
+    }
+
     /**
      * Context Menu for bringing up the help menu
      */
     private static class HelpMenu implements ActionListener
     {
         private JFrame frame;
+        private int    connectLength;
 
-        HelpMenu(JFrame frame)
+        HelpMenu(JFrame frame, int connectLength)
         {
             this.frame = frame;
+            this.connectLength = connectLength;
         }
 
         @Override
@@ -261,7 +563,7 @@ public class GUI extends MouseAdapter
         {
             String msg = "Take turns dropping discs into the columns of the board. \n" +
                 "Objective is get of your colored discs in a row (up/down, left/right or diagonally). \n" +
-                "First player to get 4 in a row wins.\n";
+                "First player to get " + connectLength + " in a row wins.\n";
 
             JOptionPane.showMessageDialog(frame, msg, "How to play", JOptionPane.OK_OPTION);
         }
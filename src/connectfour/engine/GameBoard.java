@@ -1,5 +1,9 @@
 package connectfour.engine;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class GameBoard
 {
     /**
@@ -8,28 +12,173 @@ public class GameBoard
     private static final int       EMPTY_POS = 0;
     private static       GameBoard gameBoard = null;
 
+    /**
+     * status codes returned by tryPutDisc
+     */
+    public static final int MOVE_DONE          = 1;
+    public static final int MOVE_COLUMN_FULL   = 0;
+    public static final int MOVE_OUTSIDE_BOARD = -1;
+    // only from GameEngine.tryPutDisc, once isGameOver has reported the end of the game
+    public static final int MOVE_GAME_OVER     = -2;
+
+    /**
+     * returned by the try* lookups when the position is outside of the board
+     */
+    public static final int OUTSIDE_POS = -1;
+
+    /**
+     * returned by undo, redo and getLastMove when there is no such move
+     */
+    public static final int NO_MOVE = -1;
+
+    /**
+     * size of the board and number of discs in a row needed to win, unless given otherwise
+     */
+    public static final int DEFAULT_ROWS           = 7;
+    public static final int DEFAULT_COLUMNS        = 7;
+    public static final int DEFAULT_CONNECT_LENGTH = 4;
+
+    /**
+     * largest number of rows or columns a board can have
+     */
+    public static final int MAX_SIZE = 1024;
+
+    /**
+     * seed of the Zobrist keys. The keys come from a fixed seed so hashes are the same in every run.
+     */
+    private static final long ZOBRIST_SEED = 0x5EED_C0FFEEL;
+
+    /**
+     * Zobrist keys for each board size that has been used, keyed by rows << 32 | columns
+     */
+    private static final Map<Long, long[]> ZOBRIST_TABLES = new ConcurrentHashMap<>();
+
+    /**
+     * number of columns and rows for the board, and discs in a row needed to win
+     */
+    private final int rows;
+    private final int columns;
+    private final int connectLength;
+
+    /**
+     * bits used by a single column in the bitboards. One extra bit above the top row
+     * is kept empty so that shifting discs never spills into the next column.
+     */
+    private final int columnBits;
+
+    /**
+     * longs used by each player's bitboard
+     */
+    private final int words;
+
+    /**
+     * true when a player's discs fit in a single long, so wins can be found with
+     * shift-and-mask steps on the whole bitboard
+     */
+    private final boolean singleWord;
+
+    /**
+     * random keys for each player and position, indexed by
+     * (player number - 1) * rows * columns + column * rows + height.
+     * Shared by every board of the same size.
+     */
+    private final long[] zobristKeys;
+
+    /**
+     * bitboard representation of the board, words longs per player (player 1 first).
+     * Bit (column * columnBits + height) is set when that player has a disc in the column
+     * at the given height, where height 0 is the bottom of the board.
+     */
+    private final long[] discs;
+
+    /**
+     * number of discs in each column
+     */
+    private final short[] heights;
+
+    /**
+     * total number of discs on the board
+     */
+    private int discCount;
+
+    /**
+     * every move played, in order, as column * 2 + (player number - 1). The first discCount
+     * entries are on the board, the entries after that up to historyLength can be redone.
+     */
+    private final short[] history;
+    private       int     historyLength;
+
+    /**
+     * Zobrist hash of the position, and of the same position mirrored left to right
+     */
+    private long hash;
+    private long mirrorHash;
+
     /**
      * integer representation of the board. Similar to the one in GUI, but this
-     * only holds 1,2, or 0 based on if player 1 controls a position or player 2 or neither (0)
+     * only holds 1,2, or 0 based on if player 1 controls a position or player 2 or neither (0).
+     * Only built from the bitboards when asked for through getBoardArray.
      */
-    int[][] board;
+    private int[][] boardView;
+    private boolean boardViewStale = true;
 
     /**
-     * number of columns and rows for the board
+     * Create a new empty board of the default size, where four in a row wins.
+     * Each board is independent of every other board and is meant to be used by
+     * one thread (or game) at a time.
      */
-    private static final int ROWS    = 7;
-    private static final int COLUMNS = 7;
+    public GameBoard()
+    {
+        this(DEFAULT_ROWS, DEFAULT_COLUMNS, DEFAULT_CONNECT_LENGTH);
+    }
 
     /**
-     * private constructor. use getInstance instead.
+     * Create a new empty board
+     *
+     * @param rows - number of rows, at most MAX_SIZE
+     * @param columns - number of columns, at most MAX_SIZE
+     * @param connectLength - number of discs in a row needed to win
+     *
+     * @throws IllegalArgumentException if a size is out of range
      */
-    private GameBoard()
+    public GameBoard(int rows, int columns, int connectLength)
     {
+        if (rows < 1 || rows > MAX_SIZE || columns < 1 || columns > MAX_SIZE) {
+            throw new IllegalArgumentException(String.format("Board size must be 1 to %d, got %dx%d",
+                MAX_SIZE, rows, columns));
+        }
+        if (connectLength < 1) {
+            throw new IllegalArgumentException("Connect length must be positive, got " + connectLength);
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.connectLength = connectLength;
+        columnBits = rows + 1;
+        words = (columns * columnBits + 63) >>> 6;
+        // shifts of 64 or more wrap around in Java, so every shift used by isConnected must be smaller
+        singleWord = words == 1 && (connectLength - 1) * (columnBits + 1) < 64;
+        zobristKeys = ZOBRIST_TABLES.computeIfAbsent((long) rows << 32 | columns,
+            size -> zobristKeys(2 * rows * columns, ZOBRIST_SEED));
+        discs = new long[2 * words];
+        heights = new short[columns];
+        history = new short[rows * columns];
         clearBoard();
     }
 
     /**
-     * Creates a game board singleton
+     * Create a copy of another board's size and position
+     *
+     * @param other - the board to copy
+     */
+    public GameBoard(GameBoard other)
+    {
+        this(other.rows, other.columns, other.connectLength);
+        copyFrom(other);
+    }
+
+    /**
+     * Gets the shared default board used when a single game runs in the JVM.
+     * Separate games should create their own boards with new GameBoard().
      *
      * @return an instance of the board or creates a new one if there isn't one
      */
@@ -50,12 +199,11 @@ public class GameBoard
      */
     public boolean fullAtPos(int row, int column) throws OutsideBoardException
     {
-        if (isValidColumn(column) && isValidRow(row)) {
-            return board[row][column] != EMPTY_POS;
-        }
-        else {
+        int pos = tryGetBoardPos(row, column);
+        if (pos == OUTSIDE_POS) {
             throw new OutsideBoardException();
         }
+        return pos != EMPTY_POS;
     }
 
     /**
@@ -65,20 +213,13 @@ public class GameBoard
      */
     public boolean isBoardFull()
     {
-        boolean b = true;
-        for (int i = 0; i < COLUMNS; i++) {
-            try {
-                b &= fullAtPos(0, i);
-            } catch (OutsideBoardException ignored) {
-            }
-        }
-        return b;
+        return discCount == history.length;
     }
 
     /**
      * Puts the player's number in the bottom most empty spot in the column
      *
-     * @param playerNumber - the Player's Number (non-zero)
+     * @param playerNumber - the Player's Number (1 or 2)
      * @param columnNumber - the column index to put the player/disc in it.
      * @return true if player disc was added, false if column is full
      *
@@ -86,16 +227,102 @@ public class GameBoard
      */
     public boolean putDisc(int playerNumber, int columnNumber) throws OutsideBoardException
     {
-        if (isValidColumn(columnNumber)) {
-            for (int i = ROWS - 1; i >= 0; i--) {
-                if (board[i][columnNumber] == EMPTY_POS) {
-                    board[i][columnNumber] = playerNumber;
-                    return true;
-                }
-            }
-            return false;
+        int status = tryPutDisc(playerNumber, columnNumber);
+        if (status == MOVE_OUTSIDE_BOARD) {
+            throw new OutsideBoardException();
         }
-        throw new OutsideBoardException();
+        return status == MOVE_DONE;
+    }
+
+    /**
+     * Puts the player's number in the bottom most empty spot in the column.
+     * Same as putDisc, but reports invalid columns through the returned status
+     * instead of an exception.
+     *
+     * @param playerNumber - the Player's Number (1 or 2)
+     * @param columnNumber - the column index to put the player/disc in it.
+     * @return MOVE_DONE if the disc was added, MOVE_COLUMN_FULL if the column is full
+     *         or MOVE_OUTSIDE_BOARD if the column is out of bounds
+     */
+    public int tryPutDisc(int playerNumber, int columnNumber)
+    {
+        if (!isValidColumn(columnNumber)) {
+            return MOVE_OUTSIDE_BOARD;
+        }
+        int height = heights[columnNumber];
+        if (height == rows) {
+            return MOVE_COLUMN_FULL;
+        }
+        int bit = columnNumber * columnBits + height;
+        discs[(playerNumber - 1) * words + (bit >>> 6)] |= 1L << bit;
+        heights[columnNumber] = (short) (height + 1);
+        history[discCount++] = (short) (columnNumber * 2 + playerNumber - 1);
+        historyLength = discCount;
+        toggleHash(playerNumber - 1, columnNumber, height);
+        boardViewStale = true;
+        return MOVE_DONE;
+    }
+
+    /**
+     * Take back the last disc played. The move can be played again with redo until
+     * another disc is put on the board.
+     *
+     * @return the column of the disc that was taken back or NO_MOVE if the board is empty
+     */
+    public int undo()
+    {
+        if (discCount == 0) {
+            return NO_MOVE;
+        }
+        int move = history[--discCount];
+        int column = move >> 1;
+        int height = --heights[column];
+        int bit = column * columnBits + height;
+        discs[(move & 1) * words + (bit >>> 6)] &= ~(1L << bit);
+        toggleHash(move & 1, column, height);
+        boardViewStale = true;
+        return column;
+    }
+
+    /**
+     * Play again the last move that was taken back with undo
+     *
+     * @return the column of the disc that was put back or NO_MOVE if there is nothing to redo
+     */
+    public int redo()
+    {
+        if (discCount == historyLength) {
+            return NO_MOVE;
+        }
+        int move = history[discCount++];
+        int column = move >> 1;
+        int height = heights[column]++;
+        int bit = column * columnBits + height;
+        discs[(move & 1) * words + (bit >>> 6)] |= 1L << bit;
+        toggleHash(move & 1, column, height);
+        boardViewStale = true;
+        return column;
+    }
+
+    /**
+     * Get the column of the last disc played
+     *
+     * @return the column or NO_MOVE if the board is empty
+     */
+    public int getLastMove()
+    {
+        return discCount == 0 ? NO_MOVE : history[discCount - 1] >> 1;
+    }
+
+    /**
+     * Get the column of one of the discs on the board, in the order they were played
+     *
+     * @param index - 0 for the first disc played, up to getDiscCount() - 1 for the last
+     * @return the column or NO_MOVE if there is no such disc
+     */
+    public int getMoveAt(int index)
+    {
+        return index >= 0 && index < discCount ? history[index] >> 1 : NO_MOVE;
     }
 
     /**
@@ -108,11 +335,27 @@ public class GameBoard
      * @throws OutsideBoardException on invalid position (out of bounds)
      */
     public int getBoardPos(int rowIndex, int columnIndex) throws OutsideBoardException
+    {
+        int pos = tryGetBoardPos(rowIndex, columnIndex);
+        if (pos == OUTSIDE_POS) {
+            throw new OutsideBoardException();
+        }
+        return pos;
+    }
+
+    /**
+     * Get a position on the board without throwing on invalid positions
+     *
+     * @param rowIndex - the row position
+     * @param columnIndex - the column position
+     * @return the player number (disc) for the position in question or OUTSIDE_POS
+     */
+    public int tryGetBoardPos(int rowIndex, int columnIndex)
     {
         if (isValidColumn(columnIndex) && isValidRow(rowIndex)) {
-            return board[rowIndex][columnIndex];
+            return discAt(columnIndex, rows - 1 - rowIndex);
         }
-        throw new OutsideBoardException();
+        return OUTSIDE_POS;
     }
 
     /**
@@ -125,14 +368,23 @@ public class GameBoard
      */
     public int getColumnHeight(int columnIndex) throws OutsideBoardException
     {
-        if (!isValidColumn(columnIndex)) {
+        int height = tryGetColumnHeight(columnIndex);
+        if (height == OUTSIDE_POS) {
             throw new OutsideBoardException();
         }
-        int i = 0;
-        while (i < ROWS && board[i][columnIndex] == EMPTY_POS) {
-            ++i;
-        }
-        return ROWS - i;
+        return height;
+    }
+
+    /**
+     * Get the number of filled positions with discs in a column without throwing
+     * on invalid columns
+     *
+     * @param columnIndex - the column in question
+     * @return the number of filled positions or OUTSIDE_POS
+     */
+    public int tryGetColumnHeight(int columnIndex)
+    {
+        return isValidColumn(columnIndex) ? heights[columnIndex] : OUTSIDE_POS;
     }
 
     /**
@@ -143,7 +395,7 @@ public class GameBoard
      */
     public boolean isValidColumn(int columnNumber)
     {
-        return columnNumber >= 0 && columnNumber <= this.COLUMNS - 1;
+        return columnNumber >= 0 && columnNumber <= columns - 1;
     }
 
     /**
@@ -154,22 +406,161 @@ public class GameBoard
      */
     public boolean isValidRow(int rowNumber)
     {
-        return rowNumber >= 0 && rowNumber <= this.ROWS - 1;
+        return rowNumber >= 0 && rowNumber <= rows - 1;
+    }
+
+    /**
+     * Does the player have connectLength discs in a row anywhere on the board?
+     * When the bitboard fits in a long each direction is checked with a few shift-and-mask
+     * steps. Bigger boards are scanned disc by disc, so prefer isLastMoveWinning after a move.
+     *
+     * @param playerNumber - the Player's Number (1 or 2)
+     * @return true if the player has connected enough discs to win
+     */
+    public boolean hasConnectFour(int playerNumber)
+    {
+        int playerIndex = playerNumber - 1;
+        if (singleWord) {
+            return hasConnection(discs[playerIndex]);
+        }
+        for (int column = 0; column < columns; column++) {
+            for (int height = 0; height < heights[column]; height++) {
+                if (isSet(playerIndex, column, height) && connectsAt(playerIndex, column, height)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
-     * Get an array representation of the board
+     * Did the last disc played connect enough discs in a row to win? Only the lines
+     * through that disc are checked, so the cost grows with the connect length and not
+     * with the size of the board.
+     *
+     * @return true if the last move won the game
+     */
+    public boolean isLastMoveWinning()
+    {
+        if (discCount == 0) {
+            return false;
+        }
+        int move = history[discCount - 1];
+        int playerIndex = move & 1;
+        int column = move >> 1;
+        if (singleWord) {
+            return hasConnection(discs[playerIndex]);
+        }
+        return connectsAt(playerIndex, column, heights[column] - 1);
+    }
+
+    /**
+     * Would dropping a disc in the column connect enough discs in a row for the player
+     * to win? The board is left unchanged.
+     *
+     * @param playerNumber - the Player's Number (1 or 2)
+     * @param columnNumber - the column index to check
+     * @return true if the move is legal and wins the game
+     */
+    public boolean isWinningMove(int playerNumber, int columnNumber)
+    {
+        if (!isValidColumn(columnNumber) || heights[columnNumber] == rows) {
+            return false;
+        }
+        int playerIndex = playerNumber - 1;
+        int height = heights[columnNumber];
+        if (singleWord) {
+            return hasConnection(discs[playerIndex] | 1L << (columnNumber * columnBits + height));
+        }
+        return connectsAt(playerIndex, columnNumber, height);
+    }
+
+    /**
+     * Get the number of discs played on the board so far
+     *
+     * @return number of discs on the board
+     */
+    public int getDiscCount()
+    {
+        return discCount;
+    }
+
+    /**
+     * Get the Zobrist hash of the position. The hash is updated with every disc played or
+     * taken back, so this costs nothing to call.
+     *
+     * @return the 64 bit position hash
+     */
+    public long getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * Get a hash that is the same for a position and its left-right mirror image, which
+     * always have the same value in the game
+     *
+     * @return the smaller of the hash of the position and of its mirror image
+     */
+    public long getCanonicalHash()
+    {
+        return Math.min(hash, mirrorHash);
+    }
+
+    /**
+     * Get an array representation of the board. The array is rebuilt from the
+     * bitboards only when the board has changed since the last call and must
+     * be treated as read only.
      *
      * @return the board as a 2d array
      */
     public int[][] getBoardArray()
     {
-        return board;
+        if (boardView == null) {
+            boardView = new int[rows][columns];
+        }
+        if (boardViewStale) {
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    boardView[i][j] = discAt(j, rows - 1 - i);
+                }
+            }
+            boardViewStale = false;
+        }
+        return boardView;
+    }
+
+    /**
+     * Overwrite this board with another board's position without allocating
+     *
+     * @param other - the board to copy, which must have the same size and connect length
+     *
+     * @throws IllegalArgumentException if the boards have different sizes
+     */
+    public void copyFrom(GameBoard other)
+    {
+        if (other.rows != rows || other.columns != columns || other.connectLength != connectLength) {
+            throw new IllegalArgumentException("Cannot copy a board of a different size");
+        }
+        System.arraycopy(other.discs, 0, discs, 0, discs.length);
+        System.arraycopy(other.heights, 0, heights, 0, columns);
+        discCount = other.discCount;
+        System.arraycopy(other.history, 0, history, 0, discCount);
+        historyLength = discCount;
+        hash = other.hash;
+        mirrorHash = other.mirrorHash;
+        boardViewStale = true;
     }
 
     public final void clearBoard()
     {
-        board = new int[ROWS][COLUMNS];
+        Arrays.fill(discs, 0L);
+        Arrays.fill(heights, (short) 0);
+        discCount = 0;
+        historyLength = 0;
+        hash = 0L;
+        mirrorHash = 0L;
+        boardViewStale = true;
     }
 
     /**
@@ -179,7 +570,7 @@ public class GameBoard
      */
     public int getRowNumber()
     {
-        return ROWS;
+        return rows;
     }
 
     /**
@@ -189,6 +580,168 @@ public class GameBoard
      */
     public int getColumnNumber()
     {
-        return COLUMNS;
+        return columns;
+    }
+
+    /**
+     * get the number of discs in a row needed to win
+     *
+     * @return the connect length
+     */
+    public int getConnectLength()
+    {
+        return connectLength;
+    }
+
+    /**
+     * Add or remove a disc from the position hash and the mirrored position hash
+     *
+     * @param playerIndex - player number - 1
+     * @param column - the column of the disc
+     * @param height - the height of the disc in the column
+     */
+    private void toggleHash(int playerIndex, int column, int height)
+    {
+        int playerOffset = playerIndex * rows * columns;
+        hash ^= zobristKeys[playerOffset + column * rows + height];
+        mirrorHash ^= zobristKeys[playerOffset + (columns - 1 - column) * rows + height];
+    }
+
+    /**
+     * Generate Zobrist keys with splitmix64, which gives the same keys for a seed on every JVM
+     *
+     * @param count - number of keys
+     * @param seed - the seed
+     * @return the keys
+     */
+    private static long[] zobristKeys(int count, long seed)
+    {
+        long[] keys = new long[count];
+        long state = seed;
+        for (int i = 0; i < count; i++) {
+            long z = (state += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            keys[i] = z ^ (z >>> 31);
+        }
+        return keys;
+    }
+
+    /**
+     * Are there connectLength discs in a row anywhere in a player's single long bitboard?
+     *
+     * @param position - a player's bitboard
+     * @return true if enough discs are connected to win
+     */
+    private boolean hasConnection(long position)
+    {
+        // vertical, horizontal, diagonal (\) and diagonal (/) neighbours in the bitboard
+        return isConnected(position, 1)
+            || isConnected(position, columnBits)
+            || isConnected(position, columnBits - 1)
+            || isConnected(position, columnBits + 1);
+    }
+
+    /**
+     * Are there connectLength consecutive bits in a bitboard that are each a shift apart?
+     * Runs are doubled in length with each step, so the number of steps is log2 of the
+     * connect length.
+     *
+     * @param position - a player's bitboard
+     * @param shift - the distance between neighbouring positions in the direction being checked
+     * @return true if enough positions in a row are set
+     */
+    private boolean isConnected(long position, int shift)
+    {
+        // each set bit in runs starts a line of length set bits
+        long runs = position;
+        int length = 1;
+        while (length * 2 <= connectLength) {
+            runs &= runs >>> (length * shift);
+            length *= 2;
+        }
+        if (length < connectLength) {
+            runs &= runs >>> ((connectLength - length) * shift);
+        }
+        return runs != 0;
+    }
+
+    /**
+     * Would a disc of the player at the position be part of connectLength discs in a row?
+     * Only the player's discs next to the position are looked at, so this takes at most
+     * 8 * connectLength steps.
+     *
+     * @param playerIndex - player number - 1
+     * @param column - the column of the position
+     * @param height - the height of the position in the column
+     * @return true if the position completes a line
+     */
+    private boolean connectsAt(int playerIndex, int column, int height)
+    {
+        int needed = connectLength - 1;
+        return countLine(playerIndex, column, height, 0, -1, needed) >= needed
+            || countLine(playerIndex, column, height, 1, 0, needed)
+                + countLine(playerIndex, column, height, -1, 0, needed) >= needed
+            || countLine(playerIndex, column, height, 1, 1, needed)
+                + countLine(playerIndex, column, height, -1, -1, needed) >= needed
+            || countLine(playerIndex, column, height, 1, -1, needed)
+                + countLine(playerIndex, column, height, -1, 1, needed) >= needed;
+    }
+
+    /**
+     * Count the player's discs in a row starting next to a position and going in one direction
+     *
+     * @param playerIndex - player number - 1
+     * @param column - the column of the position
+     * @param height - the height of the position in the column
+     * @param columnStep - change in column for each step
+     * @param heightStep - change in height for each step
+     * @param limit - most discs to count
+     * @return the number of discs, up to the limit
+     */
+    private int countLine(int playerIndex, int column, int height, int columnStep, int heightStep, int limit)
+    {
+        int count = 0;
+        column += columnStep;
+        height += heightStep;
+        while (count < limit && column >= 0 && column < columns && height >= 0 && height < rows
+            && isSet(playerIndex, column, height)) {
+            ++count;
+            column += columnStep;
+            height += heightStep;
+        }
+        return count;
+    }
+
+    /**
+     * Does the player have a disc at the position?
+     *
+     * @param playerIndex - player number - 1
+     * @param column - the column of the position
+     * @param height - the height of the position in the column
+     * @return true if the player's bitboard has the position set
+     */
+    private boolean isSet(int playerIndex, int column, int height)
+    {
+        int bit = column * columnBits + height;
+        return (discs[playerIndex * words + (bit >>> 6)] & 1L << bit) != 0;
+    }
+
+    /**
+     * Which player owns the position?
+     *
+     * @param column - the column of the position
+     * @param height - the height of the position in the column
+     * @return the player number or EMPTY_POS if neither player has a disc there
+     */
+    private int discAt(int column, int height)
+    {
+        if (isSet(0, column, height)) {
+            return 1;
+        }
+        if (isSet(1, column, height)) {
+            return 2;
+        }
+        return EMPTY_POS;
     }
-}
\ No newline at end of file
+}
@@ -1,54 +1,84 @@
 package connectfour.engine;
 
+import connectfour.stats.EngineMetrics;
+
 public class GameEngine
 {
-    // game board starts at 0,0 in the top left corner
-    private static final int TOP_ROW      = 0;
-    private static final int FAR_LEFT_COL = 0;
+    // returned by isGameOver when the board fills up without a winner
+    private static final Player DRAW = new Player(0);
+
+    private static final EngineMetrics METRICS = EngineMetrics.getInstance();
+
+    /**
+     * moves and game over checks are counted here and added to the metrics when the game
+     * ends, when the board is cleared and after this many, since even an uncontended atomic
+     * add costs as much as a move
+     */
+    private static final int METRICS_BATCH = 1024;
 
     private static GameEngine engine = null;
-    private GameBoard board;
-    private Player    p1, p2, currentPlayer;
-    // the column that was last clicked by a user
-    private Move lastColumnClicked = null;
+    private final GameBoard  board;
+    private final Player     p1, p2;
+    private final Scoreboard scoreboard;
+    private final int        p1Id, p2Id;
+    private       Player     currentPlayer;
+    // the winner (or DRAW) counted by isGameOver, until the last move is taken back
+    private Player            scoredWinner = null;
+    private Scoreboard.Result scoredResult = null;
+    // counted, but not yet added to METRICS
+    private int uncountedMoves;
+    private int uncountedChecks;
 
     /**
-     * Denotes the different ways the board (or 2d array) can be searched from a given position.
-     * Each value represents a step in a direction one can take when searching a direction.
-     * In other words, currentPos += SearchDir.SomeValue (adds/subtracts 1)
+     * Create a new game between two players on its own empty board.
+     * Engines do not share any state, so many games can run at once as long as
+     * each engine is only used by one thread at a time.
+     *
+     * @param p1 - player 1
+     * @param p2 - player 2
      */
-    private enum SearchDir
+    public GameEngine(Player p1, Player p2)
     {
-        // game board starts at 0,0 in the top left corner
-        None(0), // dont search either direction
-        Left(-1),
-        Right(1),
-        Down(1), // the "last" row is first position filled and not last filled
-        Up(-1); // the top of the board is the last open spot in the column
-        private int value;
-
-        SearchDir(int value) { this.value = value; }
+        this(p1, p2, new GameBoard());
+    }
 
-        public int getValue() { return value; }
+    /**
+     * Create a new game between two players on the given board
+     *
+     * @param p1 - player 1
+     * @param p2 - player 2
+     * @param board - the board the game is played on
+     */
+    public GameEngine(Player p1, Player p2, GameBoard board)
+    {
+        this(p1, p2, board, new Scoreboard(), p1.getInt(), p2.getInt());
     }
 
     /**
-     * Private constructor, use getInstance instead
+     * Create a new game between two players on the given board that counts its results
+     * on a scoreboard, which can be shared with games on other threads
      *
      * @param p1 - player 1
      * @param p2 - player 2
+     * @param board - the board the game is played on
+     * @param scoreboard - where finished games are counted
+     * @param p1Id - id of player 1 on the scoreboard
+     * @param p2Id - id of player 2 on the scoreboard
      */
-    private GameEngine(Player p1, Player p2)
+    public GameEngine(Player p1, Player p2, GameBoard board, Scoreboard scoreboard, int p1Id, int p2Id)
     {
-        board = GameBoard.getInstance();
+        this.board = board;
         this.p1 = p1;
         this.p2 = p2;
+        this.scoreboard = scoreboard;
+        this.p1Id = p1Id;
+        this.p2Id = p2Id;
         currentPlayer = this.p1;
     }
 
     /**
-     * Singleton for GameEngine. Gets an instance of the game engine or creates
-     * a new one.
+     * Gets the shared default game engine, or creates one on the shared default
+     * board. Independent games should be created with new GameEngine(p1, p2) instead.
      *
      * @param p1 - player 1
      * @param p2 - player 2
@@ -57,7 +87,7 @@ public class GameEngine
     public static synchronized GameEngine getInstance(Player p1, Player p2)
     {
         if (engine == null) {
-            engine = new GameEngine(p1, p2);
+            engine = new GameEngine(p1, p2, GameBoard.getInstance());
         }
         return engine;
     }
@@ -72,167 +102,183 @@ public class GameEngine
      */
     public boolean putDisc(Move move) throws OutsideBoardException
     {
-        if (board.putDisc(currentPlayer.getInt(), move.getPosition())) {
-            lastColumnClicked = move;
-            nextTurn();
-            return true;
-        }
-        else {
-            return false;
+        int status = tryPutDisc(move.getPosition());
+        if (status == GameBoard.MOVE_OUTSIDE_BOARD) {
+            throw new OutsideBoardException();
         }
+        return status == GameBoard.MOVE_DONE;
     }
 
     /**
-     * Switches turns to the next player
+     * Add the player's disc to the selected column on the board without
+     * allocating a Move or throwing on invalid columns
+     *
+     * @param column - column to add the disc to
+     * @return GameBoard.MOVE_DONE if the disc was added, GameBoard.MOVE_COLUMN_FULL
+     *         if the column is full, GameBoard.MOVE_OUTSIDE_BOARD if out of bounds or
+     *         GameBoard.MOVE_GAME_OVER if isGameOver has already reported the end of the game
      */
-    private void nextTurn()
+    public int tryPutDisc(int column)
     {
-        currentPlayer = currentPlayer == p1 ? p2 : p1;
+        if (++uncountedMoves == METRICS_BATCH) {
+            flushMetrics();
+        }
+        if (!METRICS.isTiming()) {
+            return playDisc(column);
+        }
+        long start = System.nanoTime();
+        int status = playDisc(column);
+        METRICS.recordMove(System.nanoTime() - start);
+        return status;
+    }
+
+    private int playDisc(int column)
+    {
+        if (scoredWinner != null) {
+            return GameBoard.MOVE_GAME_OVER;
+        }
+        int status = board.tryPutDisc(currentPlayer.getInt(), column);
+        if (status == GameBoard.MOVE_DONE) {
+            nextTurn();
+        }
+        return status;
     }
 
     /**
-     * Looks for a winner in all directions based on last clicked column
+     * Take back the last move. The turn goes back to the player who made it, and a result
+     * that the move had counted is removed from the scoreboard.
      *
-     * @return true if a winner is found
+     * @return true if a move was taken back, false if there are no moves to take back
      */
-    private boolean declareWinner()
+    public boolean undo()
     {
-        try {
-            // search to the left and right for a connect four
-            int rowPieces = findWinner(SearchDir.Right, SearchDir.None) + findWinner(SearchDir.Left, SearchDir.None) - 1;
-            if (rowPieces >= 4) {
-                return true;
-            }
-            // search up and down for a connect four
-            int columnPieces = findWinner(SearchDir.None, SearchDir.Down) + findWinner(SearchDir.None, SearchDir.Up) - 1;
-            if (columnPieces >= 4) {
-                return true;
-            }
-            // search diagonally to the right for a connect four
-            int backSlashPieces = findWinner(SearchDir.Right, SearchDir.Down) + findWinner(SearchDir.Left, SearchDir.Up) - 1;
-            if (backSlashPieces >= 4) {
-                return true;
-            }
-            // search diagonally to the left for a connect four
-            int foreSlashPieces = findWinner(SearchDir.Right, SearchDir.Up) + findWinner(SearchDir.Left, SearchDir.Down) - 1;
-            if (foreSlashPieces >= 4) {
-                return true;
-            }
-        } catch (OutsideBoardException ignored) {
-
+        if (board.undo() == GameBoard.NO_MOVE) {
+            return false;
         }
-        return false;
+        if (scoredResult != null) {
+            scoredResult.retract();
+            scoredResult = null;
+            scoredWinner = null;
+        }
+        nextTurn();
+        return true;
     }
 
     /**
-     * Searches a given direction for a connect four on the game board
-     *
-     * @param horzSearchDir - the current horizontal direction to search (left or right or none)
-     * @param vertSearchDir - the current vertical direction to search (up or down or none)
-     * @return the number of like player discs in a direction (4 being a winner)
+     * Play again the last move that was taken back with undo
      *
-     * @throws OutsideBoardException thrown if it tries to search out of bounds
+     * @return true if a move was played again, false if there is nothing to redo
      */
-    private int findWinner(SearchDir horzSearchDir, SearchDir vertSearchDir) throws OutsideBoardException
+    public boolean redo()
     {
-        int lastMoveColumn = lastColumnClicked.getPosition();
-        int lastMoveRow = board.getRowNumber() - board.getColumnHeight(lastMoveColumn);
-
-        int curRow = lastMoveRow;
-        int curCol = lastMoveColumn;
-        int count = 0;
-
-        do {
-            curRow += vertSearchDir.getValue();
-            curCol += horzSearchDir.getValue();
-            ++count;
+        if (board.redo() == GameBoard.NO_MOVE) {
+            return false;
         }
-        while (count < 4 && !outOfBounds(curRow, curCol) && samePosition(lastMoveColumn, lastMoveRow, curRow, curCol));
-        return count;
+        nextTurn();
+        return true;
     }
 
     /**
-     * Is the current position outside of the board?
+     * Get the column of the last move played
      *
-     * @param curRow - row in question
-     * @param curCol - column in question
-     * @return true if position is out of bounds for the row/column
+     * @return the column or GameBoard.NO_MOVE if no moves have been played
      */
-    private boolean outOfBounds(int curRow, int curCol)
+    public int getLastMove()
     {
-        return curRow < TOP_ROW || pastLastRow(curRow) || curCol < FAR_LEFT_COL || pastLastColumn(curCol);
+        return board.getLastMove();
     }
 
     /**
-     * Is the current position the same as the last clicked position by the player?
-     *
-     * @param lastMoveColumn - the last column position clicked
-     * @param lastMoveRow - the last row position clicked
-     * @param curRow - the current row that is being searched
-     * @param curCol - the current column that is being searched
-     * @return true if the positions are identical
-     *
-     * @throws OutsideBoardException if either position is outside of the board
+     * Add the moves and game over checks counted since the last flush to the metrics
      */
-    private boolean samePosition(int lastMoveColumn, int lastMoveRow, int curRow, int curCol) throws OutsideBoardException
+    private void flushMetrics()
     {
-        return board.getBoardPos(curRow, curCol) == board.getBoardPos(lastMoveRow, lastMoveColumn);
+        METRICS.countMoves(uncountedMoves);
+        METRICS.countGameOverChecks(uncountedChecks);
+        uncountedMoves = 0;
+        uncountedChecks = 0;
     }
 
     /**
-     * Is the current position past the far right in the row?
-     *
-     * @param curCol - the current column in question
-     * @return true if this is the far right column
+     * Switches turns to the next player
      */
-    private boolean pastLastColumn(int curCol)
+    private void nextTurn()
     {
-        return curCol == board.getColumnNumber();
+        currentPlayer = currentPlayer == p1 ? p2 : p1;
     }
 
     /**
-     * Is the current position the past last (row empty) in the column?
+     * Checks if the player who made the last move has connected enough discs to win.
+     * Only the lines through the last disc are checked.
      *
-     * @param curRow - the current row in question
-     * @return true if this is the last row
+     * @return true if a winner is found
      */
-    private boolean pastLastRow(int curRow)
+    private boolean declareWinner()
     {
-        return curRow == board.getRowNumber();
+        return board.isLastMoveWinning();
     }
 
     /**
      * Is the game over yet?
      *
-     * @return the player that won if game over. If a draw (board full), return a new player with
+     * The result is counted on the scoreboard the first time this is called after the last move.
+     *
+     * @return the player that won if game over. If a draw (board full), return a player with
      *         number zero. Otherwise, return null if game is not over.
      */
     public Player isGameOver()
     {
-        if (board.isBoardFull()) {
-            return new Player(0);
+        if (++uncountedChecks == METRICS_BATCH) {
+            flushMetrics();
         }
-        if (declareWinner()) {
+        if (!METRICS.isTiming()) {
+            return checkGameOver();
+        }
+        long start = System.nanoTime();
+        Player winner = checkGameOver();
+        METRICS.recordGameOverCheck(System.nanoTime() - start);
+        return winner;
+    }
 
-            if (currentPlayer == p1) {
-                ++p2.wins;
-                return p2;
-            }
-            else {
-                ++p1.wins;
-                return p1;
-            }
+    private Player checkGameOver()
+    {
+        if (scoredWinner != null) {
+            return scoredWinner;
+        }
+        if (declareWinner()) {
+            scoredWinner = getOtherPlayer();
+            scoredResult = currentPlayer == p1 ? scoreboard.recordWin(p2Id, p1Id) : scoreboard.recordWin(p1Id, p2Id);
+            flushMetrics();
+            return scoredWinner;
+        }
+        if (board.isBoardFull()) {
+            scoredWinner = DRAW;
+            scoredResult = scoreboard.recordDraw(p1Id, p2Id);
+            flushMetrics();
+            return DRAW;
         }
         return null;
     }
 
     /**
-     * Get the score of the game
-     * @return number of wins by each player
+     * Get the score of the game without allocating
+     *
+     * @param scores - filled with the number of wins by player 1 and player 2
      */
-    public int[] getScore()
+    public void getScore(long[] scores)
     {
-        return new int[] {p1.wins, p2.wins};
+        scores[0] = scoreboard.getWins(p1Id);
+        scores[1] = scoreboard.getWins(p2Id);
+    }
+
+    /**
+     * Get the scoreboard the results of this game are counted on
+     *
+     * @return the scoreboard
+     */
+    public Scoreboard getScoreboard()
+    {
+        return scoreboard;
     }
 
     /**
@@ -245,6 +291,16 @@ public class GameEngine
         return currentPlayer;
     }
 
+    /**
+     * Fetches the player waiting for the current player to move
+     *
+     * @return the player who is not to move
+     */
+    public Player getOtherPlayer()
+    {
+        return currentPlayer == p1 ? p2 : p1;
+    }
+
     /**
      * Get the total rows for the board.
      *
@@ -265,9 +321,26 @@ public class GameEngine
         return board.getColumnNumber();
     }
 
+    /**
+     * Get the number of discs in a row needed to win
+     *
+     * @return the connect length
+     */
+    public int getConnectLength()
+    {
+        return board.getConnectLength();
+    }
+
+    /**
+     * Empty the board for a new game, which player 1 starts
+     */
     public void clearBoard()
     {
         board.clearBoard();
+        scoredWinner = null;
+        scoredResult = null;
+        flushMetrics();
+        currentPlayer = p1;
     }
 
     /**
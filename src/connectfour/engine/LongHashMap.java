@@ -0,0 +1,239 @@
+package connectfour.engine;
+
+/**
+ * Map from long keys such as position hashes to long values, stored unboxed in one open
+ * addressing table with linear probing, each slot holding a key and its value. Like
+ * LongHashSet the table has a fixed memory budget, on the heap or off the heap, and never
+ * grows: once it holds LongHashSet.MAX_LOAD_FACTOR of its capacity, putting a new key throws
+ * IllegalStateException. Values of keys already in the map can still be replaced.
+ * <p>
+ * Not thread-safe; give each thread its own map or lock around it.
+ */
+public class LongHashMap
+{
+    /**
+     * marks a free slot. The key 0 is kept outside the table.
+     */
+    private static final long FREE = 0L;
+
+    private final LongStorage slots;
+    private final long        capacity;
+    private final long        mask;
+    private final int         indexShift;
+    private final long        maxSize;
+
+    /**
+     * returned by get when the key is not in the map
+     */
+    private final long missingValue;
+
+    private long    size;
+    private boolean hasZero;
+    private long    zeroValue;
+
+    /**
+     * Create a map that uses at most a given amount of memory
+     *
+     * @param memoryBytes - memory budget for the table (each slot takes 16 bytes; the capacity
+     *                      is the largest power of two of slots that fits)
+     * @param offHeap - true to keep the table in direct buffers outside the Java heap
+     * @param missingValue - value returned by get for keys that are not in the map
+     *
+     * @throws IllegalArgumentException if the budget is less than 32 bytes
+     */
+    public LongHashMap(long memoryBytes, boolean offHeap, long missingValue)
+    {
+        if (memoryBytes < 4 * Long.BYTES) {
+            throw new IllegalArgumentException("Memory budget too small: " + memoryBytes);
+        }
+        int bits = 63 - Long.numberOfLeadingZeros(memoryBytes / (2 * Long.BYTES));
+        capacity = 1L << bits;
+        mask = capacity - 1;
+        indexShift = 64 - bits;
+        maxSize = (long) (capacity * LongHashSet.MAX_LOAD_FACTOR);
+        this.missingValue = missingValue;
+        slots = new LongStorage(2 * capacity, offHeap);
+    }
+
+    /**
+     * Look up a key
+     *
+     * @param key - the key
+     * @return the value of the key, or the missing value if the key is not in the map
+     */
+    public long get(long key)
+    {
+        if (key == FREE) {
+            return hasZero ? zeroValue : missingValue;
+        }
+        long index = index(key);
+        while (true) {
+            long stored = slots.get(2 * index);
+            if (stored == key) {
+                return slots.get(2 * index + 1);
+            }
+            if (stored == FREE) {
+                return missingValue;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key)
+    {
+        if (key == FREE) {
+            return hasZero;
+        }
+        long index = index(key);
+        while (true) {
+            long stored = slots.get(2 * index);
+            if (stored == key) {
+                return true;
+            }
+            if (stored == FREE) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Set the value of a key
+     *
+     * @param key - the key
+     * @param value - the new value
+     * @return the old value of the key, or the missing value if the key was not in the map
+     *
+     * @throws IllegalStateException if the key is new and the map is full
+     */
+    public long put(long key, long value)
+    {
+        if (key == FREE) {
+            if (hasZero) {
+                long old = zeroValue;
+                zeroValue = value;
+                return old;
+            }
+            reserve();
+            hasZero = true;
+            zeroValue = value;
+            return missingValue;
+        }
+        long index = index(key);
+        while (true) {
+            long stored = slots.get(2 * index);
+            if (stored == key) {
+                long old = slots.get(2 * index + 1);
+                slots.set(2 * index + 1, value);
+                return old;
+            }
+            if (stored == FREE) {
+                reserve();
+                slots.set(2 * index, key);
+                slots.set(2 * index + 1, value);
+                return missingValue;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove every key
+     */
+    public void clear()
+    {
+        slots.clear();
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     * get the number of keys in the map
+     *
+     * @return number of keys
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * get the number of slots of the table
+     *
+     * @return number of slots
+     */
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * get the number of keys the map can hold
+     *
+     * @return number of keys
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public boolean isFull()
+    {
+        return size >= maxSize;
+    }
+
+    public boolean isOffHeap()
+    {
+        return slots.isOffHeap();
+    }
+
+    /**
+     * get the memory used by the table
+     *
+     * @return number of bytes
+     */
+    public long getMemoryBytes()
+    {
+        return slots.length() * Long.BYTES;
+    }
+
+    /**
+     * get the fraction of slots in use
+     *
+     * @return the load factor, from 0 to LongHashSet.MAX_LOAD_FACTOR
+     */
+    public double getLoadFactor()
+    {
+        return (double) size / capacity;
+    }
+
+    /**
+     * Measure how far keys are from their home slots. This walks the whole table.
+     *
+     * @return element i counts keys found with i + 1 probes, the last element counts keys
+     *         found with that many probes or more
+     */
+    public long[] getProbeCounts()
+    {
+        return LongStorage.probeCounts(slots, capacity, 2, indexShift);
+    }
+
+    /**
+     * Claim room for one more key
+     *
+     * @throws IllegalStateException if the map is full
+     */
+    private void reserve()
+    {
+        if (size >= maxSize) {
+            throw new IllegalStateException("LongHashMap is full: " + maxSize + " keys in " + getMemoryBytes()
+                + " bytes");
+        }
+        ++size;
+    }
+
+    private long index(long key)
+    {
+        return (key * LongStorage.SPREAD) >>> indexShift;
+    }
+}
@@ -0,0 +1,222 @@
+package connectfour.engine;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Set of long keys such as position hashes, stored unboxed in one open addressing table
+ * with linear probing. The table has a fixed memory budget, kept on the heap or off the heap,
+ * and never grows: once it holds MAX_LOAD_FACTOR of its capacity, adding a new key throws
+ * IllegalStateException rather than letting probes get long or memory run out. Keys that are
+ * already in the set can still be added and looked up.
+ * <p>
+ * Keys can be added and looked up by any number of threads at once without locks. Keys
+ * cannot be removed one by one, only all at once with clear.
+ */
+public class LongHashSet
+{
+    /**
+     * fraction of the slots that can hold keys before the set is full
+     */
+    public static final double MAX_LOAD_FACTOR = 0.75;
+
+    /**
+     * marks a free slot. The key 0 is kept outside the table.
+     */
+    private static final long FREE = 0L;
+
+    private final LongStorage   slots;
+    private final long          capacity;
+    private final long          mask;
+    private final int           indexShift;
+    private final long          maxSize;
+    private final AtomicLong    size    = new AtomicLong();
+    private final AtomicBoolean hasZero = new AtomicBoolean();
+
+    /**
+     * Create a set that uses at most a given amount of memory
+     *
+     * @param memoryBytes - memory budget for the table (each slot takes 8 bytes; the capacity
+     *                      is the largest power of two of slots that fits)
+     * @param offHeap - true to keep the table in direct buffers outside the Java heap
+     *
+     * @throws IllegalArgumentException if the budget is less than 16 bytes
+     */
+    public LongHashSet(long memoryBytes, boolean offHeap)
+    {
+        if (memoryBytes < 2 * Long.BYTES) {
+            throw new IllegalArgumentException("Memory budget too small: " + memoryBytes);
+        }
+        int bits = 63 - Long.numberOfLeadingZeros(memoryBytes / Long.BYTES);
+        capacity = 1L << bits;
+        mask = capacity - 1;
+        indexShift = 64 - bits;
+        maxSize = (long) (capacity * MAX_LOAD_FACTOR);
+        slots = new LongStorage(capacity, offHeap);
+    }
+
+    /**
+     * Add a key
+     *
+     * @param key - the key
+     * @return true if the key was added, false if it was already in the set
+     *
+     * @throws IllegalStateException if the key is new and the set is full
+     */
+    public boolean add(long key)
+    {
+        if (key == FREE) {
+            if (hasZero.get()) {
+                return false;
+            }
+            reserve();
+            if (hasZero.compareAndSet(false, true)) {
+                return true;
+            }
+            size.decrementAndGet();
+            return false;
+        }
+        long index = index(key);
+        while (true) {
+            long stored = slots.getAcquire(index);
+            if (stored == FREE) {
+                reserve();
+                stored = slots.compareAndExchange(index, FREE, key);
+                if (stored == FREE) {
+                    return true;
+                }
+                // another thread took the slot first
+                size.decrementAndGet();
+            }
+            if (stored == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Look up a key
+     *
+     * @param key - the key
+     * @return true if the key is in the set
+     */
+    public boolean contains(long key)
+    {
+        if (key == FREE) {
+            return hasZero.get();
+        }
+        long index = index(key);
+        while (true) {
+            long stored = slots.getAcquire(index);
+            if (stored == key) {
+                return true;
+            }
+            if (stored == FREE) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove every key. Not safe while other threads use the set.
+     */
+    public void clear()
+    {
+        slots.clear();
+        hasZero.set(false);
+        size.set(0);
+    }
+
+    /**
+     * get the number of keys in the set
+     *
+     * @return number of keys
+     */
+    public long size()
+    {
+        return size.get();
+    }
+
+    /**
+     * get the number of slots of the table
+     *
+     * @return number of slots
+     */
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * get the number of keys the set can hold
+     *
+     * @return number of keys
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public boolean isFull()
+    {
+        return size.get() >= maxSize;
+    }
+
+    public boolean isOffHeap()
+    {
+        return slots.isOffHeap();
+    }
+
+    /**
+     * get the memory used by the table
+     *
+     * @return number of bytes
+     */
+    public long getMemoryBytes()
+    {
+        return capacity * Long.BYTES;
+    }
+
+    /**
+     * get the fraction of slots in use
+     *
+     * @return the load factor, from 0 to MAX_LOAD_FACTOR
+     */
+    public double getLoadFactor()
+    {
+        return (double) size.get() / capacity;
+    }
+
+    /**
+     * Measure how far keys are from their home slots. This walks the whole table.
+     *
+     * @return the number of keys found a given number of probes from their home slot:
+     *         element i counts keys found with i + 1 probes, the last element counts
+     *         keys found with that many probes or more
+     */
+    public long[] getProbeCounts()
+    {
+        return LongStorage.probeCounts(slots, capacity, 1, indexShift);
+    }
+
+    /**
+     * Claim room for one more key
+     *
+     * @throws IllegalStateException if the set is full
+     */
+    private void reserve()
+    {
+        if (size.getAndIncrement() >= maxSize) {
+            size.decrementAndGet();
+            throw new IllegalStateException("LongHashSet is full: " + maxSize + " keys in " + getMemoryBytes()
+                + " bytes");
+        }
+    }
+
+    private long index(long key)
+    {
+        return (key * LongStorage.SPREAD) >>> indexShift;
+    }
+}
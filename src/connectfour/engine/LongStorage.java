@@ -0,0 +1,173 @@
+package connectfour.engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A fixed length array of longs on the heap or off the heap, which may be longer than a
+ * single Java array or buffer can be. The longs are kept in chunks of CHUNK_LONGS. Off heap
+ * chunks are direct buffers aligned to 8 bytes so that they support atomic access; their
+ * memory is given back when the storage is garbage collected.
+ */
+final class LongStorage
+{
+    /**
+     * multiplier that spreads keys over the slots of a hash table
+     */
+    static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+    /**
+     * longest probe sequence counted on its own by probeCounts
+     */
+    private static final int MAX_COUNTED_PROBES = 32;
+
+    private static final int CHUNK_BITS  = 27;
+    private static final int CHUNK_LONGS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK  = CHUNK_LONGS - 1;
+
+    private static final VarHandle ARRAY_LONGS  = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BUFFER_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+        ByteOrder.nativeOrder());
+
+    /**
+     * exactly one of these is set
+     */
+    private final long[][]     arrays;
+    private final ByteBuffer[] buffers;
+
+    private final long length;
+
+    /**
+     * Allocate zeroed storage
+     *
+     * @param length - number of longs
+     * @param offHeap - true to keep the longs in direct buffers, false for long arrays
+     */
+    LongStorage(long length, boolean offHeap)
+    {
+        this.length = length;
+        int chunks = (int) ((length + CHUNK_MASK) >>> CHUNK_BITS);
+        if (offHeap) {
+            arrays = null;
+            buffers = new ByteBuffer[chunks];
+            for (int i = 0; i < chunks; i++) {
+                int bytes = (int) Math.min(CHUNK_LONGS, length - ((long) i << CHUNK_BITS)) * Long.BYTES;
+                buffers[i] = ByteBuffer.allocateDirect(bytes + Long.BYTES).alignedSlice(Long.BYTES)
+                    .limit(bytes).slice().order(ByteOrder.nativeOrder());
+            }
+        }
+        else {
+            buffers = null;
+            arrays = new long[chunks][];
+            for (int i = 0; i < chunks; i++) {
+                arrays[i] = new long[(int) Math.min(CHUNK_LONGS, length - ((long) i << CHUNK_BITS))];
+            }
+        }
+    }
+
+    long length()
+    {
+        return length;
+    }
+
+    boolean isOffHeap()
+    {
+        return buffers != null;
+    }
+
+    long get(long index)
+    {
+        int chunk = (int) (index >>> CHUNK_BITS);
+        int offset = (int) index & CHUNK_MASK;
+        if (arrays != null) {
+            return arrays[chunk][offset];
+        }
+        return buffers[chunk].getLong(offset << 3);
+    }
+
+    void set(long index, long value)
+    {
+        int chunk = (int) (index >>> CHUNK_BITS);
+        int offset = (int) index & CHUNK_MASK;
+        if (arrays != null) {
+            arrays[chunk][offset] = value;
+        }
+        else {
+            buffers[chunk].putLong(offset << 3, value);
+        }
+    }
+
+    long getAcquire(long index)
+    {
+        int chunk = (int) (index >>> CHUNK_BITS);
+        int offset = (int) index & CHUNK_MASK;
+        if (arrays != null) {
+            return (long) ARRAY_LONGS.getAcquire(arrays[chunk], offset);
+        }
+        return (long) BUFFER_LONGS.getAcquire(buffers[chunk], offset << 3);
+    }
+
+    /**
+     * Atomically replace a long if it has the expected value
+     *
+     * @param index - index of the long
+     * @param expected - the value it must have
+     * @param value - the new value
+     * @return the value it had, which is expected if it was replaced
+     */
+    long compareAndExchange(long index, long expected, long value)
+    {
+        int chunk = (int) (index >>> CHUNK_BITS);
+        int offset = (int) index & CHUNK_MASK;
+        if (arrays != null) {
+            return (long) ARRAY_LONGS.compareAndExchange(arrays[chunk], offset, expected, value);
+        }
+        return (long) BUFFER_LONGS.compareAndExchange(buffers[chunk], offset << 3, expected, value);
+    }
+
+    /**
+     * Set every long to 0. Not safe while other threads use the storage.
+     */
+    void clear()
+    {
+        if (arrays != null) {
+            for (long[] array : arrays) {
+                Arrays.fill(array, 0L);
+            }
+        }
+        else {
+            for (ByteBuffer buffer : buffers) {
+                for (int offset = 0; offset < buffer.capacity(); offset += Long.BYTES) {
+                    buffer.putLong(offset, 0L);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measure how far the keys of a hash table with linear probing are from their home
+     * slots, where the home slot of a key is (key * SPREAD) >>> indexShift
+     *
+     * @param slots - the table, with the key first in each slot
+     * @param capacity - number of slots
+     * @param slotLongs - number of longs per slot
+     * @param indexShift - 64 minus log2 of the capacity
+     * @return element i counts keys found with i + 1 probes, the last element counts keys
+     *         found with that many probes or more
+     */
+    static long[] probeCounts(LongStorage slots, long capacity, int slotLongs, int indexShift)
+    {
+        long[] counts = new long[MAX_COUNTED_PROBES];
+        for (long index = 0; index < capacity; index++) {
+            long key = slots.get(index * slotLongs);
+            if (key != 0L) {
+                long distance = (index - ((key * SPREAD) >>> indexShift)) & (capacity - 1);
+                ++counts[(int) Math.min(distance, MAX_COUNTED_PROBES - 1)];
+            }
+        }
+        return counts;
+    }
+}
@@ -3,7 +3,6 @@ package connectfour.engine;
 public class Player
 {
     private int playerNum;
-    public int wins = 0;
 
     /**
      * A player object to keep track of game players
@@ -24,4 +23,54 @@ public class Player
     {
         return playerNum;
     }
-}
\ No newline at end of file
+
+    /**
+     * Does this player pick its own moves, rather than through user input?
+     *
+     * @return true for computer players
+     */
+    public boolean isComputer()
+    {
+        return false;
+    }
+
+    /**
+     * Pick the column this player wants to drop a disc in. The board is not changed.
+     * Human players make their moves through the GUI, so they never pick a column here.
+     *
+     * @param board - the current game board, with this player to move
+     * @return the column index for the move or -1 if the player does not pick moves
+     */
+    public int chooseMove(GameBoard board)
+    {
+        return -1;
+    }
+
+    /**
+     * Ask a chooseMove call running on another thread to return as soon as it can. A
+     * caller that stops searches must match every chooseMove call with one stop, before,
+     * during or after the call, so that a stop is never taken for the next search.
+     * Players that answer right away have nothing to stop.
+     */
+    public void stop()
+    {
+    }
+
+    /**
+     * Think about the position while the opponent is choosing a move, so that the next
+     * chooseMove is faster. Runs until stopPondering is called or there is nothing left to
+     * learn. Players that do not ponder return right away.
+     *
+     * @param board - the current game board, with the opponent to move. The board is not changed.
+     */
+    public void ponder(GameBoard board)
+    {
+    }
+
+    /**
+     * Ask a ponder call running on another thread to return as soon as it can
+     */
+    public void stopPondering()
+    {
+    }
+}
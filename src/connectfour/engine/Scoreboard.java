@@ -0,0 +1,363 @@
+package connectfour.engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Wins, losses, draws and Elo rating of players, by player id, for any number of games
+ * ending at once. Recording a game takes no lock: the counts are LongAdders, so games ending
+ * together on different threads update different cells, and a rating moves with one atomic
+ * add. The rating change is worked out from the ratings before the game and added to one
+ * player and taken from the other, so the ratings always add up to INITIAL_RATING per player.
+ * <p>
+ * Reading one count is just a sum and can see a game half recorded, e.g. the winner's win
+ * but not the loser's loss. getStanding and getStandings see either all or none of every
+ * game: every recording counts itself in begun before it changes anything and in finished
+ * after, and a read is kept only if nothing began between reading finished and the end of
+ * the read. Otherwise it is read again, up to READ_ATTEMPTS times. If games keep ending
+ * during every attempt, the read takes the gate: recordings that begin while it is held
+ * wait for it, and the read waits for the ones already running, then reads once.
+ */
+public class Scoreboard
+{
+    public static final double INITIAL_RATING = 1500;
+
+    /**
+     * most rating points a player can win or lose in one game
+     */
+    private static final double K_FACTOR = 32;
+
+    /**
+     * ratings are kept in thousandths of a point so that they can be added atomically
+     */
+    private static final double RATING_SCALE = 1000;
+
+    /**
+     * reads without the gate before a read takes it
+     */
+    private static final int READ_ATTEMPTS = 16;
+
+    private final ConcurrentHashMap<Integer, Record> records  = new ConcurrentHashMap<>();
+    private final LongAdder                          begun    = new LongAdder();
+    private final LongAdder                          finished = new LongAdder();
+
+    /**
+     * held by a read that gave up on reading between recordings. closed is only set while
+     * the gate is held, and recordings that see it wait for the gate.
+     */
+    private final    ReentrantLock gate = new ReentrantLock();
+    private volatile boolean       closed;
+
+    /**
+     * Count a win
+     *
+     * @param winner - id of the player who won
+     * @param loser - id of the player who lost
+     * @return the recorded game, to take it back with
+     */
+    public Result recordWin(int winner, int loser)
+    {
+        return record(winner, loser, 1);
+    }
+
+    /**
+     * Count a draw
+     *
+     * @param player - id of one player
+     * @param opponent - id of the other player
+     * @return the recorded game, to take it back with
+     */
+    public Result recordDraw(int player, int opponent)
+    {
+        return record(player, opponent, 0.5);
+    }
+
+    /**
+     * @param score - 1 if player won, 0.5 for a draw
+     */
+    private Result record(int player, int opponent, double score)
+    {
+        if (player == opponent) {
+            throw new IllegalArgumentException("A player cannot play itself: " + player);
+        }
+        Record first = records.computeIfAbsent(player, Record::new);
+        Record second = records.computeIfAbsent(opponent, Record::new);
+        begin();
+        try {
+            double difference = (second.rating.get() - first.rating.get()) / RATING_SCALE;
+            double expected = 1 / (1 + Math.pow(10, difference / 400));
+            long change = Math.round(K_FACTOR * (score - expected) * RATING_SCALE);
+            if (score == 1) {
+                first.wins.increment();
+                second.losses.increment();
+            }
+            else {
+                first.draws.increment();
+                second.draws.increment();
+            }
+            first.rating.getAndAdd(change);
+            second.rating.getAndAdd(-change);
+            return new Result(first, second, score == 1, change);
+        } finally {
+            finished.increment();
+        }
+    }
+
+    /**
+     * Count a recording in begun, first waiting for a read that holds the gate
+     */
+    private void begin()
+    {
+        while (true) {
+            begun.increment();
+            if (!closed) {
+                return;
+            }
+            // take the recording back out and wait until the read is done
+            finished.increment();
+            gate.lock();
+            gate.unlock();
+        }
+    }
+
+    /**
+     * Read while no recording runs, retrying a few times before taking the gate
+     *
+     * @param reader - reads the records, may be called more than once
+     * @return what the last call of reader returned
+     */
+    private <T> T read(Supplier<T> reader)
+    {
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            long done = finished.sum();
+            T value = reader.get();
+            if (begun.sum() == done) {
+                return value;
+            }
+            Thread.onSpinWait();
+        }
+        gate.lock();
+        try {
+            closed = true;
+            // recordings that began before closed was seen are finishing or backing out
+            while (true) {
+                long done = finished.sum();
+                if (begun.sum() == done) {
+                    break;
+                }
+                Thread.onSpinWait();
+            }
+            return reader.get();
+        } finally {
+            closed = false;
+            gate.unlock();
+        }
+    }
+
+    /**
+     * Get the number of wins of a player. Cheap, but see the class comment about consistency.
+     *
+     * @param id - the player
+     * @return the wins, 0 for a player without games
+     */
+    public long getWins(int id)
+    {
+        Record record = records.get(id);
+        return record == null ? 0 : record.wins.sum();
+    }
+
+    /**
+     * Get the number of losses of a player
+     *
+     * @param id - the player
+     * @return the losses, 0 for a player without games
+     */
+    public long getLosses(int id)
+    {
+        Record record = records.get(id);
+        return record == null ? 0 : record.losses.sum();
+    }
+
+    /**
+     * Get the number of draws of a player
+     *
+     * @param id - the player
+     * @return the draws, 0 for a player without games
+     */
+    public long getDraws(int id)
+    {
+        Record record = records.get(id);
+        return record == null ? 0 : record.draws.sum();
+    }
+
+    /**
+     * Get the rating of a player
+     *
+     * @param id - the player
+     * @return the Elo rating, INITIAL_RATING for a player without games
+     */
+    public double getRating(int id)
+    {
+        Record record = records.get(id);
+        return record == null ? INITIAL_RATING : record.rating.get() / RATING_SCALE;
+    }
+
+    /**
+     * Read everything known about one player at one moment
+     *
+     * @param id - the player
+     * @return the player's standing
+     */
+    public Standing getStanding(int id)
+    {
+        return read(() -> {
+            Record record = records.get(id);
+            return record == null ? new Standing(id, 0, 0, 0, INITIAL_RATING) : record.read();
+        });
+    }
+
+    /**
+     * Read every player at one moment, as a leaderboard
+     *
+     * @return the players that have played, best rating first, then by id
+     */
+    public List<Standing> getStandings()
+    {
+        List<Standing> standings = read(() -> {
+            List<Standing> read = new ArrayList<>();
+            for (Record record : records.values()) {
+                read.add(record.read());
+            }
+            return read;
+        });
+        standings.sort(Comparator.comparingDouble(Standing::getRating).reversed()
+            .thenComparingInt(Standing::getId));
+        return standings;
+    }
+
+    /**
+     * Counts and rating of one player
+     */
+    private static class Record
+    {
+        private final int        id;
+        private final LongAdder  wins   = new LongAdder();
+        private final LongAdder  losses = new LongAdder();
+        private final LongAdder  draws  = new LongAdder();
+        private final AtomicLong rating = new AtomicLong(Math.round(INITIAL_RATING * RATING_SCALE));
+
+        Record(int id)
+        {
+            this.id = id;
+        }
+
+        Standing read()
+        {
+            return new Standing(id, wins.sum(), losses.sum(), draws.sum(), rating.get() / RATING_SCALE);
+        }
+    }
+
+    /**
+     * A recorded game, which can be taken back once, e.g. when its last move is undone
+     */
+    public class Result
+    {
+        private final Record  first;
+        private final Record  second;
+        private final boolean win;
+        private final long    change;
+        private       boolean retracted;
+
+        private Result(Record first, Record second, boolean win, long change)
+        {
+            this.first = first;
+            this.second = second;
+            this.win = win;
+            this.change = change;
+        }
+
+        /**
+         * Remove the game from the counts and undo its rating change. Games recorded since
+         * keep the rating changes they got.
+         */
+        public synchronized void retract()
+        {
+            if (retracted) {
+                throw new IllegalStateException("The game was already taken back");
+            }
+            retracted = true;
+            begin();
+            try {
+                if (win) {
+                    first.wins.decrement();
+                    second.losses.decrement();
+                }
+                else {
+                    first.draws.decrement();
+                    second.draws.decrement();
+                }
+                first.rating.getAndAdd(-change);
+                second.rating.getAndAdd(change);
+            } finally {
+                finished.increment();
+            }
+        }
+    }
+
+    /**
+     * A player's counts and rating at one moment
+     */
+    public static class Standing
+    {
+        private final int    id;
+        private final long   wins;
+        private final long   losses;
+        private final long   draws;
+        private final double rating;
+
+        Standing(int id, long wins, long losses, long draws, double rating)
+        {
+            this.id = id;
+            this.wins = wins;
+            this.losses = losses;
+            this.draws = draws;
+            this.rating = rating;
+        }
+
+        public int getId()
+        {
+            return id;
+        }
+
+        public long getWins()
+        {
+            return wins;
+        }
+
+        public long getLosses()
+        {
+            return losses;
+        }
+
+        public long getDraws()
+        {
+            return draws;
+        }
+
+        public long getGames()
+        {
+            return wins + losses + draws;
+        }
+
+        public double getRating()
+        {
+            return rating;
+        }
+    }
+}
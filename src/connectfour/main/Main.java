@@ -1,15 +1,170 @@
 package connectfour.main;
 
+import connectfour.ai.AlphaBetaPlayer;
+import connectfour.ai.OpeningBook;
+import connectfour.ai.PlayerFactory;
+import connectfour.engine.GameBoard;
 import connectfour.engine.Player;
 import connectfour.engine.GUI;
+import connectfour.records.GameRecordWriter;
+import connectfour.server.GameServer;
+import connectfour.stats.EngineMetrics;
+import connectfour.tools.AnalysisProtocol;
+import connectfour.tools.Tournament;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 
 public class Main
 {
-    public static void main(String... args)
+    /**
+     * Start the game. Players default to humans and can be changed with
+     * --p1=TYPE and --p2=TYPE, where TYPE is human, ai, ai:DEPTH, ai:DEPTH:MILLIS,
+     * ai:DEPTH:MILLIS:THREADS, ai:DEPTH:MILLIS:THREADS:TABLEBITS, or mcts, mcts:MILLIS,
+     * mcts:MILLIS:PLAYOUTS, mcts:MILLIS:PLAYOUTS:THREADS or mcts:MILLIS:PLAYOUTS:THREADS:TREEBITS
+     * for the Monte Carlo tree search player. The board size and the
+     * number of discs in a row needed to win are set with --rows=N, --columns=N and --connect=N.
+     * <p>
+     * --tournament=GAMES plays that many games between the two (computer) players without a
+     * window and prints a summary. --threads=N sets how many games are played at once
+     * (one per core by default) and --out=FILE streams every game to a CSV file.
+     * <p>
+     * --book=FILE lets the ai players play from an opening book made by OpeningBookGenerator,
+     * and --record=FILE adds every finished game, from the window or a tournament, to a
+     * binary game record file.
+     * <p>
+     * --server=PORT serves games to network clients on loopback (--server=HOST:PORT to listen
+     * on another address) instead of opening a window. See GameServer for the protocol.
+     * <p>
+     * --analysis reads analysis commands from standard input and answers on standard output
+     * (see AnalysisProtocol), searching with --threads threads. Like the tournament and server
+     * modes it never loads Swing or the board images, so it starts quickly.
+     * <p>
+     * --metrics makes the engine metrics readable through JMX (see EngineMetrics), and
+     * --metrics=SECONDS also prints them to standard error that often.
+     *
+     * @param args - command line arguments
+     *
+     * @throws IOException if the opening book cannot be read, the game log or game record
+     *                     file cannot be written or the server address cannot be bound
+     */
+    public static void main(String... args) throws IOException
+    {
+        String p1Type = "human";
+        String p2Type = "human";
+        int rows = GameBoard.DEFAULT_ROWS;
+        int columns = GameBoard.DEFAULT_COLUMNS;
+        int connectLength = GameBoard.DEFAULT_CONNECT_LENGTH;
+        long tournamentGames = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String gameLog = null;
+        OpeningBook openingBook = null;
+        String recordFile = null;
+        String serverAddress = null;
+        boolean analysis = false;
+        long metricsSeconds = -1;
+        for (String arg : args) {
+            if (arg.startsWith("--p1=")) {
+                p1Type = arg.substring("--p1=".length());
+            }
+            else if (arg.startsWith("--p2=")) {
+                p2Type = arg.substring("--p2=".length());
+            }
+            else if (arg.startsWith("--rows=")) {
+                rows = Integer.parseInt(arg.substring("--rows=".length()));
+            }
+            else if (arg.startsWith("--columns=")) {
+                columns = Integer.parseInt(arg.substring("--columns=".length()));
+            }
+            else if (arg.startsWith("--connect=")) {
+                connectLength = Integer.parseInt(arg.substring("--connect=".length()));
+            }
+            else if (arg.startsWith("--tournament=")) {
+                tournamentGames = Long.parseLong(arg.substring("--tournament=".length()));
+            }
+            else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            }
+            else if (arg.startsWith("--out=")) {
+                gameLog = arg.substring("--out=".length());
+            }
+            else if (arg.startsWith("--book=")) {
+                openingBook = OpeningBook.open(Paths.get(arg.substring("--book=".length())));
+            }
+            else if (arg.startsWith("--record=")) {
+                recordFile = arg.substring("--record=".length());
+            }
+            else if (arg.startsWith("--server=")) {
+                serverAddress = arg.substring("--server=".length());
+            }
+            else if (arg.equals("--analysis")) {
+                analysis = true;
+            }
+            else if (arg.equals("--metrics")) {
+                metricsSeconds = 0;
+            }
+            else if (arg.startsWith("--metrics=")) {
+                metricsSeconds = Long.parseLong(arg.substring("--metrics=".length()));
+            }
+        }
+        if (metricsSeconds >= 0) {
+            EngineMetrics metrics = EngineMetrics.getInstance();
+            metrics.register();
+            if (metricsSeconds > 0) {
+                metrics.startLogging(metricsSeconds, System.err);
+            }
+        }
+        if (analysis) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            new AnalysisProtocol(new GameBoard(rows, columns, connectLength), threads,
+                AlphaBetaPlayer.DEFAULT_TABLE_BITS, in, System.out).run();
+            return;
+        }
+        if (serverAddress != null) {
+            int colon = serverAddress.lastIndexOf(':');
+            InetSocketAddress address = colon < 0
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(serverAddress))
+                : new InetSocketAddress(serverAddress.substring(0, colon),
+                    Integer.parseInt(serverAddress.substring(colon + 1)));
+            try (GameServer server = new GameServer(address, rows, columns, connectLength)) {
+                System.err.printf("serving games on port %d%n", server.getPort());
+                server.run();
+            }
+            return;
+        }
+        GameBoard board = new GameBoard(rows, columns, connectLength);
+        GameRecordWriter recordWriter = recordFile == null ? null : new GameRecordWriter(Paths.get(recordFile), board);
+        if (tournamentGames > 0) {
+            Tournament tournament = new Tournament(p1Type, p2Type, rows, columns, connectLength);
+            tournament.setOpeningBook(openingBook);
+            tournament.setRecordWriter(recordWriter);
+            try {
+                tournament.run(tournamentGames, threads, gameLog, System.out);
+            } finally {
+                if (recordWriter != null) {
+                    recordWriter.close();
+                }
+            }
+            return;
+        }
+        Player p1 = PlayerFactory.create(1, p1Type, openingBook);
+        Player p2 = PlayerFactory.create(2, p2Type, openingBook);
+        startGui(p1, p2, board, recordWriter);
+    }
+
+    /**
+     * Open the game window. Kept out of main so that the headless modes never load
+     * the Swing and AWT classes.
+     */
+    private static void startGui(Player p1, Player p2, GameBoard board, GameRecordWriter recordWriter)
     {
-        Player p1 = new Player(1);
-        Player p2 = new Player(2);
-        GUI ui = new GUI(p1, p2);
+        GUI ui = new GUI(p1, p2, board);
+        ui.setRecordWriter(recordWriter);
         ui.startGame();
     }
-}
\ No newline at end of file
+}
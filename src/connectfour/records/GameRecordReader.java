@@ -0,0 +1,181 @@
+package connectfour.records;
+
+import connectfour.engine.GameBoard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the games of a game record file one at a time (see GameRecords for the format).
+ * The file is read through a small buffer, so files of any size can be replayed.
+ * A reader is meant to be used by one thread.
+ */
+public class GameRecordReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final GameBoard   fileBoard;
+    private final int         moveBits;
+    private       ByteBuffer  buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private       boolean     endOfFile;
+
+    private int  result;
+    private int  moveCount;
+    private long gameCount;
+
+    /**
+     * Open a game record file
+     *
+     * @param path - the file
+     *
+     * @throws IOException if the file cannot be read or is not a game record file
+     */
+    public GameRecordReader(Path path) throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            buffer.flip();
+            if (!fill(GameRecords.HEADER_SIZE)) {
+                throw new IOException("Not a game record file: " + path);
+            }
+            fileBoard = GameRecords.readHeader(buffer);
+            moveBits = GameRecords.moveBits(fileBoard.getColumnNumber());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create an empty board of the size the file's games are played on
+     *
+     * @return the board
+     */
+    public GameBoard newBoard()
+    {
+        return new GameBoard(fileBoard);
+    }
+
+    /**
+     * Replay the next game of the file on a board
+     *
+     * @param board - a board of the file's size (see newBoard). It is cleared first, and
+     *                holds the game's moves afterwards.
+     * @return false if there are no more games
+     *
+     * @throws IOException if the file cannot be read or holds a broken game
+     */
+    public boolean next(GameBoard board) throws IOException
+    {
+        if (!fill(1)) {
+            return false;
+        }
+        int count = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28 || !fill(1)) {
+                throw new IOException("Broken game record");
+            }
+            int b = buffer.get();
+            count |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (count < 0 || count > fileBoard.getRowNumber() * fileBoard.getColumnNumber()
+            || !fill(1 + GameRecords.movesSize(count, moveBits))) {
+            throw new IOException("Broken game record");
+        }
+        result = buffer.get();
+
+        board.clearBoard();
+        for (int i = 0; i < count; i++) {
+            int column;
+            if (moveBits == 4) {
+                int b = buffer.get(buffer.position() + i / 2);
+                column = i % 2 == 0 ? (b >> 4) & 0xf : b & 0xf;
+            }
+            else if (moveBits == 8) {
+                column = buffer.get(buffer.position() + i) & 0xff;
+            }
+            else {
+                column = buffer.getShort(buffer.position() + 2 * i) & 0xffff;
+            }
+            if (board.tryPutDisc(i % 2 + 1, column) != GameBoard.MOVE_DONE) {
+                throw new IOException("Broken game record: illegal move");
+            }
+        }
+        buffer.position(buffer.position() + GameRecords.movesSize(count, moveBits));
+        moveCount = count;
+        ++gameCount;
+        return true;
+    }
+
+    /**
+     * get the result of the last game read
+     *
+     * @return the winning player number, GameRecordWriter.RESULT_DRAW or GameRecordWriter.RESULT_UNFINISHED
+     */
+    public int getResult()
+    {
+        return result;
+    }
+
+    /**
+     * get the number of moves of the last game read
+     *
+     * @return number of moves
+     */
+    public int getMoveCount()
+    {
+        return moveCount;
+    }
+
+    /**
+     * get the number of games read so far
+     *
+     * @return number of games
+     */
+    public long getGameCount()
+    {
+        return gameCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Make sure the buffer holds at least a number of unread bytes, reading more of the
+     * file if needed
+     *
+     * @param bytes - number of bytes needed
+     * @return false if the file ends first
+     */
+    private boolean fill(int bytes) throws IOException
+    {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        if (bytes > buffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(bytes);
+            bigger.put(buffer);
+            bigger.flip();
+            buffer = bigger;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes && !endOfFile) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+}
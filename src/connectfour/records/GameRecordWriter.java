@@ -0,0 +1,197 @@
+package connectfour.records;
+
+import connectfour.engine.GameBoard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends finished games to a game record file (see GameRecords for the format).
+ * <p>
+ * Games are encoded into a buffer and the buffer is appended to the file when it fills up,
+ * on flush and on close, so a file only ever holds whole games. Any number of threads can
+ * share one writer. Every append holds an exclusive lock on the file, so writers in other
+ * processes can append to the same file at the same time; within a process there should be
+ * one writer per file.
+ */
+public class GameRecordWriter implements Closeable
+{
+    /**
+     * results of a game. Wins are stored as the winner's player number.
+     */
+    public static final int RESULT_DRAW       = 0;
+    public static final int RESULT_UNFINISHED = 3;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final int         rows;
+    private final int         columns;
+    private final int         connectLength;
+    private final int         moveBits;
+    private       ByteBuffer  buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private       long        gameCount;
+
+    /**
+     * Open a game record file for appending, creating it if it does not exist
+     *
+     * @param path - the file
+     * @param board - a board of the size the games are played on
+     *
+     * @throws IOException if the file cannot be opened, or already holds games of another board size
+     */
+    public GameRecordWriter(Path path, GameBoard board) throws IOException
+    {
+        rows = board.getRowNumber();
+        columns = board.getColumnNumber();
+        connectLength = board.getConnectLength();
+        moveBits = GameRecords.moveBits(columns);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.lock();
+            try {
+                checkHeader(path, board);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Add a game to the file. The game's moves are read from the board's history.
+     *
+     * @param board - the board the game was played on
+     * @param result - the winning player number, RESULT_DRAW or RESULT_UNFINISHED
+     *
+     * @throws IOException if the buffer had to be flushed and could not be written
+     */
+    public synchronized void write(GameBoard board, int result) throws IOException
+    {
+        if (board.getRowNumber() != rows || board.getColumnNumber() != columns
+            || board.getConnectLength() != connectLength) {
+            throw new IllegalArgumentException("Board size does not match the game record file");
+        }
+        int moveCount = board.getDiscCount();
+        int size = GameRecords.MAX_VARINT_SIZE + 1 + GameRecords.movesSize(moveCount, moveBits);
+        if (size > buffer.remaining()) {
+            flush();
+            if (size > buffer.capacity()) {
+                buffer = ByteBuffer.allocateDirect(size);
+            }
+        }
+
+        for (int value = moveCount; ; value >>>= 7) {
+            if ((value & ~0x7f) == 0) {
+                buffer.put((byte) value);
+                break;
+            }
+            buffer.put((byte) (value & 0x7f | 0x80));
+        }
+        buffer.put((byte) result);
+        if (moveBits == 4) {
+            for (int i = 0; i < moveCount; i += 2) {
+                int second = i + 1 < moveCount ? board.getMoveAt(i + 1) : 0;
+                buffer.put((byte) (board.getMoveAt(i) << 4 | second));
+            }
+        }
+        else if (moveBits == 8) {
+            for (int i = 0; i < moveCount; i++) {
+                buffer.put((byte) board.getMoveAt(i));
+            }
+        }
+        else {
+            for (int i = 0; i < moveCount; i++) {
+                buffer.putShort((short) board.getMoveAt(i));
+            }
+        }
+        ++gameCount;
+    }
+
+    /**
+     * Append the buffered games to the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        FileLock lock = channel.lock();
+        try {
+            writeFully(buffer, channel.size());
+        } finally {
+            lock.release();
+        }
+        buffer.clear();
+    }
+
+    /**
+     * get the number of games written by this writer
+     *
+     * @return number of games
+     */
+    public synchronized long getGameCount()
+    {
+        return gameCount;
+    }
+
+    /**
+     * Append the buffered games and close the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write the header of a new file, or make sure an existing file is for the same board
+     * size. Called with the file locked.
+     */
+    private void checkHeader(Path path, GameBoard board) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(GameRecords.HEADER_SIZE);
+        if (channel.size() == 0) {
+            GameRecords.putHeader(header, board);
+            header.flip();
+            writeFully(header, 0);
+            return;
+        }
+        int read = 0;
+        while (header.hasRemaining() && read >= 0) {
+            read = channel.read(header, header.position());
+        }
+        header.flip();
+        if (header.remaining() < GameRecords.HEADER_SIZE) {
+            throw new IOException("Not a game record file: " + path);
+        }
+        GameBoard fileBoard = GameRecords.readHeader(header);
+        if (fileBoard.getRowNumber() != rows || fileBoard.getColumnNumber() != columns
+            || fileBoard.getConnectLength() != connectLength) {
+            throw new IOException("Game record file is for a different board size: " + path);
+        }
+    }
+
+    private void writeFully(ByteBuffer source, long position) throws IOException
+    {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+}
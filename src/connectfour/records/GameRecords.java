@@ -0,0 +1,91 @@
+package connectfour.records;
+
+import connectfour.engine.GameBoard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The game record file format shared by GameRecordWriter and GameRecordReader.
+ * <p>
+ * A file starts with a 12 byte header: the magic number (int), the format version (byte),
+ * the bits used per move (byte), and the rows, columns and connect length of the board
+ * (short each). Every game in a file is played on that board.
+ * <p>
+ * Each game follows as its number of moves (unsigned LEB128 varint), its result (byte) and
+ * the columns played, in order. Columns take 4 bits each when the board has at most 16
+ * columns (two moves per byte, first move in the high nibble), 8 bits with at most 256
+ * columns and 16 bits otherwise.
+ */
+final class GameRecords
+{
+    static final int MAGIC       = 0x43344752;
+    static final int VERSION     = 1;
+    static final int HEADER_SIZE = 12;
+
+    /**
+     * longest encoded move count
+     */
+    static final int MAX_VARINT_SIZE = 5;
+
+    private GameRecords()
+    {
+    }
+
+    /**
+     * Get the bits each move takes for a board
+     *
+     * @param columns - number of columns of the board
+     * @return 4, 8 or 16
+     */
+    static int moveBits(int columns)
+    {
+        return columns <= 16 ? 4 : columns <= 256 ? 8 : 16;
+    }
+
+    /**
+     * Get the bytes taken by the moves of a game
+     *
+     * @param moveCount - number of moves
+     * @param moveBits - bits per move
+     * @return number of bytes
+     */
+    static int movesSize(int moveCount, int moveBits)
+    {
+        return moveBits == 4 ? (moveCount + 1) / 2 : moveCount * (moveBits / 8);
+    }
+
+    static void putHeader(ByteBuffer buffer, GameBoard board)
+    {
+        buffer.putInt(MAGIC).put((byte) VERSION).put((byte) moveBits(board.getColumnNumber()))
+            .putShort((short) board.getRowNumber()).putShort((short) board.getColumnNumber())
+            .putShort((short) board.getConnectLength());
+    }
+
+    /**
+     * Read a file header and create an empty board of the size it describes
+     *
+     * @param buffer - the buffer positioned at the header
+     * @return the board
+     *
+     * @throws IOException if the header is not a game record header
+     */
+    static GameBoard readHeader(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new IOException("Not a game record file");
+        }
+        int moveBits = buffer.get();
+        int rows = buffer.getShort();
+        int columns = buffer.getShort();
+        int connectLength = buffer.getShort();
+        if (moveBits != moveBits(columns)) {
+            throw new IOException("Game record file header is corrupt");
+        }
+        try {
+            return new GameBoard(rows, columns, connectLength);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Game record file header is corrupt", e);
+        }
+    }
+}
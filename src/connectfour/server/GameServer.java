@@ -0,0 +1,553 @@
+package connectfour.server;
+
+import connectfour.engine.GameBoard;
+import connectfour.engine.GameEngine;
+import connectfour.engine.Player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Serves games over TCP with a line based text protocol. One thread runs a selector for
+ * every connection, so thousands of players cost a few kilobytes of buffers each and no
+ * threads. Each connection has its own GameEngine and board, on which the client makes the
+ * moves of both players. Lines end with \n (a \r before it is ignored) and every request
+ * gets exactly one reply line:
+ * <pre>
+ * NEW [ROWS COLUMNS CONNECT]  start a new game  OK NEW ROWS COLUMNS CONNECT
+ * MOVE COLUMN                 play a move       OK MOVE COLUMN STATUS
+ * STATE                       the game so far   STATE ROWS COLUMNS CONNECT MOVES STATUS
+ * RESULT                      the game status   RESULT STATUS
+ * QUIT                        hang up           BYE
+ * </pre>
+ * STATUS is PLAYING followed by the player to move, WIN followed by the winner, or DRAW.
+ * MOVES are the columns played so far separated by commas, or - before the first move.
+ * A request that cannot be carried out gets ERR followed by NO_GAME, GAME_OVER,
+ * COLUMN_FULL, OUTSIDE_BOARD, BAD_SIZE or BAD_COMMAND. A line longer than MAX_LINE
+ * gets ERR LINE_TOO_LONG and the connection is closed.
+ * <p>
+ * While a reply has not been sent in full no more requests are read from the connection,
+ * so a client that does not read its replies only slows itself down.
+ */
+public class GameServer implements Runnable, Closeable
+{
+    /**
+     * longest request line in bytes, without the line end
+     */
+    public static final int MAX_LINE = 256;
+
+    /**
+     * largest number of rows or columns of a board on the server
+     */
+    public static final int MAX_BOARD_SIZE = 64;
+
+    private static final int BACKLOG     = 4096;
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final byte[] OK_NEW            = ascii("OK NEW ");
+    private static final byte[] OK_MOVE           = ascii("OK MOVE ");
+    private static final byte[] STATE             = ascii("STATE ");
+    private static final byte[] RESULT            = ascii("RESULT ");
+    private static final byte[] BYE               = ascii("BYE");
+    private static final byte[] PLAYING           = ascii("PLAYING ");
+    private static final byte[] WIN               = ascii("WIN ");
+    private static final byte[] DRAW              = ascii("DRAW");
+    private static final byte[] ERR_NO_GAME       = ascii("ERR NO_GAME");
+    private static final byte[] ERR_GAME_OVER     = ascii("ERR GAME_OVER");
+    private static final byte[] ERR_COLUMN_FULL   = ascii("ERR COLUMN_FULL");
+    private static final byte[] ERR_OUTSIDE_BOARD = ascii("ERR OUTSIDE_BOARD");
+    private static final byte[] ERR_BAD_SIZE      = ascii("ERR BAD_SIZE");
+    private static final byte[] ERR_BAD_COMMAND   = ascii("ERR BAD_COMMAND");
+    private static final byte[] ERR_LINE_TOO_LONG = ascii("ERR LINE_TOO_LONG");
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector            selector;
+    private final int                 rows;
+    private final int                 columns;
+    private final int                 connectLength;
+    private volatile boolean          running = true;
+
+    /**
+     * the request line being handled and the token read last, only used by the selector thread
+     */
+    private final byte[] line = new byte[MAX_LINE];
+    private       int    lineLength;
+    private       int    tokenStart;
+    private       int    tokenEnd;
+
+    /**
+     * Open the server socket. Connections are accepted once run is called.
+     *
+     * @param address - address to listen on, port 0 for any free port
+     * @param rows - rows of the board of NEW without a size
+     * @param columns - columns of the board of NEW without a size
+     * @param connectLength - connect length of the board of NEW without a size
+     *
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if the board size is invalid
+     */
+    public GameServer(InetSocketAddress address, int rows, int columns, int connectLength) throws IOException
+    {
+        // fail before binding on an invalid board size
+        new GameBoard(rows, columns, connectLength);
+        this.rows = rows;
+        this.columns = columns;
+        this.connectLength = connectLength;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address, BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * get the port the server listens on
+     *
+     * @return the port
+     */
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Serve connections until close is called. All connections are closed on return.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            // out of file descriptors or the client gave up, try again on the next select
+                        }
+                        continue;
+                    }
+                    try {
+                        if (key.isWritable()) {
+                            flush(key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                    } catch (IOException e) {
+                        // the client went away
+                        closeConnection(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeConnection(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Stop serving. run returns and closes every connection.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Session());
+        }
+    }
+
+    /**
+     * Handle every complete request line that has arrived on a connection
+     */
+    private void read(SelectionKey key) throws IOException
+    {
+        Session session = (Session) key.attachment();
+        ByteBuffer in = session.in;
+        if (((SocketChannel) key.channel()).read(in) < 0) {
+            closeConnection(key);
+            return;
+        }
+        in.flip();
+        int start = in.position();
+        for (int i = start; i < in.limit(); i++) {
+            if (in.get(i) != '\n') {
+                continue;
+            }
+            int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+            if (end - start > MAX_LINE) {
+                tooLong(session);
+                break;
+            }
+            in.get(start, line, 0, end - start);
+            lineLength = end - start;
+            handle(session);
+            start = i + 1;
+            if (session.closing) {
+                break;
+            }
+        }
+        in.position(start);
+        in.compact();
+        if (!session.closing && in.position() > MAX_LINE) {
+            tooLong(session);
+        }
+        flush(key);
+    }
+
+    private void tooLong(Session session)
+    {
+        reply(session, ERR_LINE_TOO_LONG);
+        session.closing = true;
+    }
+
+    /**
+     * Send as much of the pending replies as the connection takes, and read more requests
+     * only once they have all been sent
+     */
+    private void flush(SelectionKey key) throws IOException
+    {
+        Session session = (Session) key.attachment();
+        ByteBuffer out = session.out;
+        out.flip();
+        ((SocketChannel) key.channel()).write(out);
+        out.compact();
+        if (out.position() > 0) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+        else if (session.closing) {
+            closeConnection(key);
+        }
+        else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void closeConnection(SelectionKey key)
+    {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    /**
+     * Carry out the request in line and append its reply
+     */
+    private void handle(Session session)
+    {
+        tokenEnd = 0;
+        if (!nextToken()) {
+            reply(session, ERR_BAD_COMMAND);
+        }
+        else if (tokenIs("MOVE")) {
+            move(session);
+        }
+        else if (tokenIs("NEW")) {
+            newGame(session);
+        }
+        else if (tokenIs("STATE")) {
+            state(session);
+        }
+        else if (tokenIs("RESULT")) {
+            result(session);
+        }
+        else if (tokenIs("QUIT") && !nextToken()) {
+            reply(session, BYE);
+            session.closing = true;
+        }
+        else {
+            reply(session, ERR_BAD_COMMAND);
+        }
+    }
+
+    private void newGame(Session session)
+    {
+        int newRows = rows;
+        int newColumns = columns;
+        int newConnectLength = connectLength;
+        if (nextToken()) {
+            newRows = tokenInt();
+            newColumns = nextToken() ? tokenInt() : -1;
+            newConnectLength = nextToken() ? tokenInt() : -1;
+            if (newConnectLength < 0 || nextToken()) {
+                reply(session, ERR_BAD_COMMAND);
+                return;
+            }
+            if (newRows < 1 || newRows > MAX_BOARD_SIZE || newColumns < 1 || newColumns > MAX_BOARD_SIZE
+                || newConnectLength < 1 || newConnectLength > Math.max(newRows, newColumns)) {
+                reply(session, ERR_BAD_SIZE);
+                return;
+            }
+        }
+        GameEngine engine = session.engine;
+        if (engine != null && engine.getRowNumber() == newRows && engine.getColumnNumber() == newColumns
+            && engine.getConnectLength() == newConnectLength) {
+            engine.clearBoard();
+        }
+        else {
+            session.engine = new GameEngine(new Player(1), new Player(2),
+                new GameBoard(newRows, newColumns, newConnectLength));
+        }
+        append(session, OK_NEW);
+        append(session, newRows);
+        append(session, ' ');
+        append(session, newColumns);
+        append(session, ' ');
+        append(session, newConnectLength);
+        append(session, '\n');
+    }
+
+    private void move(Session session)
+    {
+        int column = nextToken() ? tokenInt() : -1;
+        if (column < 0 || nextToken()) {
+            reply(session, ERR_BAD_COMMAND);
+            return;
+        }
+        GameEngine engine = session.engine;
+        if (engine == null) {
+            reply(session, ERR_NO_GAME);
+            return;
+        }
+        if (engine.isGameOver() != null) {
+            reply(session, ERR_GAME_OVER);
+            return;
+        }
+        int status = engine.tryPutDisc(column);
+        if (status == GameBoard.MOVE_COLUMN_FULL) {
+            reply(session, ERR_COLUMN_FULL);
+            return;
+        }
+        if (status != GameBoard.MOVE_DONE) {
+            reply(session, ERR_OUTSIDE_BOARD);
+            return;
+        }
+        append(session, OK_MOVE);
+        append(session, column);
+        append(session, ' ');
+        appendStatus(session);
+        append(session, '\n');
+    }
+
+    private void state(Session session)
+    {
+        GameEngine engine = session.engine;
+        if (nextToken()) {
+            reply(session, ERR_BAD_COMMAND);
+            return;
+        }
+        if (engine == null) {
+            reply(session, ERR_NO_GAME);
+            return;
+        }
+        GameBoard board = engine.getBoard();
+        append(session, STATE);
+        append(session, board.getRowNumber());
+        append(session, ' ');
+        append(session, board.getColumnNumber());
+        append(session, ' ');
+        append(session, board.getConnectLength());
+        append(session, ' ');
+        int moves = board.getDiscCount();
+        if (moves == 0) {
+            append(session, '-');
+        }
+        for (int i = 0; i < moves; i++) {
+            if (i > 0) {
+                append(session, ',');
+            }
+            append(session, board.getMoveAt(i));
+        }
+        append(session, ' ');
+        appendStatus(session);
+        append(session, '\n');
+    }
+
+    private void result(Session session)
+    {
+        if (nextToken()) {
+            reply(session, ERR_BAD_COMMAND);
+            return;
+        }
+        if (session.engine == null) {
+            reply(session, ERR_NO_GAME);
+            return;
+        }
+        append(session, RESULT);
+        appendStatus(session);
+        append(session, '\n');
+    }
+
+    private void appendStatus(Session session)
+    {
+        GameEngine engine = session.engine;
+        Player result = engine.isGameOver();
+        if (result == null) {
+            append(session, PLAYING);
+            append(session, engine.getCurrentPlayer().getInt());
+        }
+        else if (result.getInt() == 0) {
+            append(session, DRAW);
+        }
+        else {
+            append(session, WIN);
+            append(session, result.getInt());
+        }
+    }
+
+    /**
+     * Move to the next space separated token of the line
+     *
+     * @return false if there are no more tokens
+     */
+    private boolean nextToken()
+    {
+        int i = tokenEnd;
+        while (i < lineLength && line[i] == ' ') {
+            i++;
+        }
+        if (i == lineLength) {
+            return false;
+        }
+        tokenStart = i;
+        while (i < lineLength && line[i] != ' ') {
+            i++;
+        }
+        tokenEnd = i;
+        return true;
+    }
+
+    private boolean tokenIs(String word)
+    {
+        if (tokenEnd - tokenStart != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (line[tokenStart + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the token as a number, or -1 if it is not a number below 100000
+     */
+    private int tokenInt()
+    {
+        if (tokenEnd - tokenStart > 5) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = tokenStart; i < tokenEnd; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void reply(Session session, byte[] text)
+    {
+        append(session, text);
+        append(session, '\n');
+    }
+
+    private static void append(Session session, byte[] text)
+    {
+        session.ensureRoom(text.length).put(text);
+    }
+
+    private static void append(Session session, char c)
+    {
+        session.ensureRoom(1).put((byte) c);
+    }
+
+    private static void append(Session session, int value)
+    {
+        if (value >= 10) {
+            append(session, value / 10);
+        }
+        append(session, (char) ('0' + value % 10));
+    }
+
+    private static byte[] ascii(String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A connection's game and its unsent replies
+     */
+    private static class Session
+    {
+        private final ByteBuffer in  = ByteBuffer.allocate(BUFFER_SIZE);
+        private       ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        private       GameEngine engine;
+
+        /**
+         * true once the connection is to be closed after its replies are sent
+         */
+        private boolean closing;
+
+        /**
+         * Make room for more reply bytes, growing the reply buffer if needed
+         *
+         * @param bytes - number of bytes to add
+         * @return the reply buffer
+         */
+        private ByteBuffer ensureRoom(int bytes)
+        {
+            if (out.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + bytes));
+                out.flip();
+                out = larger.put(out);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package connectfour.server;
+
+import connectfour.engine.GameBoard;
+import connectfour.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulates many players on a GameServer to measure how many moves per second it handles
+ * and how long moves take. Every simulated player has its own connection and plays games
+ * of random legal moves one request at a time, starting a new game when one ends. The
+ * connections are shared out between a few threads, each running a selector.
+ * <p>
+ * Once every player is connected, moves are counted and timed for the given number of
+ * seconds; the time of a move is from sending MOVE to reading its reply. Without --port a
+ * server is started in this process on loopback. Each player needs a file descriptor, and
+ * twice that when the server runs in the same process.
+ * <p>
+ * Usage: LoadGenerator [--host=HOST] [--port=N] [--players=N] [--seconds=N] [--threads=N]
+ * [--rows=N] [--columns=N] [--connect=N]
+ */
+public class LoadGenerator
+{
+    private static final int DEFAULT_PLAYERS = 10000;
+    private static final int DEFAULT_SECONDS = 10;
+
+    private final InetSocketAddress address;
+    private final int               rows;
+    private final int               columns;
+    private final int               connectLength;
+
+    /**
+     * set while moves are counted and timed, cleared when the run is over
+     */
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    /**
+     * Set up a load test
+     *
+     * @param address - the server
+     * @param rows - rows of the boards to play on
+     * @param columns - columns of the boards to play on
+     * @param connectLength - connect length of the boards to play on
+     */
+    public LoadGenerator(InetSocketAddress address, int rows, int columns, int connectLength)
+    {
+        this.address = address;
+        this.rows = rows;
+        this.columns = columns;
+        this.connectLength = connectLength;
+    }
+
+    public static void main(String... args) throws IOException
+    {
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+        int port = -1;
+        int players = DEFAULT_PLAYERS;
+        int seconds = DEFAULT_SECONDS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rows = GameBoard.DEFAULT_ROWS;
+        int columns = GameBoard.DEFAULT_COLUMNS;
+        int connectLength = GameBoard.DEFAULT_CONNECT_LENGTH;
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            }
+            else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+            else if (arg.startsWith("--players=")) {
+                players = Integer.parseInt(arg.substring("--players=".length()));
+            }
+            else if (arg.startsWith("--seconds=")) {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            }
+            else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            }
+            else if (arg.startsWith("--rows=")) {
+                rows = Integer.parseInt(arg.substring("--rows=".length()));
+            }
+            else if (arg.startsWith("--columns=")) {
+                columns = Integer.parseInt(arg.substring("--columns=".length()));
+            }
+            else if (arg.startsWith("--connect=")) {
+                connectLength = Integer.parseInt(arg.substring("--connect=".length()));
+            }
+        }
+
+        GameServer server = null;
+        if (port < 0) {
+            server = new GameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), rows, columns,
+                connectLength);
+            port = server.getPort();
+            Thread serverThread = new Thread(server, "game-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+        }
+        try {
+            new LoadGenerator(new InetSocketAddress(host, port), rows, columns, connectLength)
+                .run(players, seconds, threads);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Connect the players, let them play and print the results
+     *
+     * @param players - number of simulated players
+     * @param seconds - how long to count moves for once everyone is connected
+     * @param threads - number of client threads
+     *
+     * @throws IOException if a player cannot connect
+     */
+    public void run(int players, int seconds, int threads) throws IOException
+    {
+        CountDownLatch connected = new CountDownLatch(threads);
+        List<Client> clients = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long nanos;
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int count = players / threads + (i < players % threads ? 1 : 0);
+                Client client = new Client(count, i, connected);
+                clients.add(client);
+                results.add(pool.submit(client));
+            }
+            connected.await();
+            System.err.printf("%d players connected%n", players);
+            long start = System.nanoTime();
+            measuring = true;
+            Thread.sleep(seconds * 1000L);
+            measuring = false;
+            nanos = System.nanoTime() - start;
+            stopped = true;
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Load test interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            stopped = true;
+            pool.shutdown();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long games = 0;
+        long errors = 0;
+        for (Client client : clients) {
+            latency.add(client.latency);
+            games += client.games;
+            errors += client.errors;
+        }
+        System.out.println("players,seconds,moves,moves_per_s,games,errors,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+        System.out.printf("%d,%.1f,%d,%.0f,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f%n", players, nanos / 1e9,
+            latency.getCount(), latency.getCount() * 1e9 / nanos, games, errors, latency.getMean() / 1e3,
+            latency.getPercentile(50) / 1e3, latency.getPercentile(90) / 1e3, latency.getPercentile(99) / 1e3,
+            latency.getPercentile(99.9) / 1e3, latency.getMax() / 1e3);
+    }
+
+    /**
+     * Runs some of the simulated players on one selector
+     */
+    private class Client implements Runnable
+    {
+        private final int            players;
+        private final int            id;
+        private final CountDownLatch connected;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private       long             games;
+        private       long             errors;
+
+        Client(int players, int id, CountDownLatch connected)
+        {
+            this.players = players;
+            this.id = id;
+            this.connected = connected;
+        }
+
+        @Override
+        public void run()
+        {
+            try (Selector selector = Selector.open()) {
+                try {
+                    for (int i = 0; i < players; i++) {
+                        SocketChannel channel = SocketChannel.open(address);
+                        channel.configureBlocking(false);
+                        channel.socket().setTcpNoDelay(true);
+                        SimulatedPlayer player = new SimulatedPlayer(id * 0x9E3779B97F4A7C15L + i + 1);
+                        SelectionKey key = channel.register(selector, SelectionKey.OP_READ, player);
+                        player.newGame(key);
+                    }
+                } finally {
+                    connected.countDown();
+                }
+                while (!stopped) {
+                    selector.select(100);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        SimulatedPlayer player = (SimulatedPlayer) key.attachment();
+                        if (key.isWritable()) {
+                            player.flush(key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            player.read(key);
+                        }
+                    }
+                }
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * One connection playing random games
+         */
+        private class SimulatedPlayer
+        {
+            private final ByteBuffer in      = ByteBuffer.allocate(256);
+            private final ByteBuffer out     = ByteBuffer.allocate(64);
+            private final int[]      heights = new int[columns];
+            private       long       random;
+            private       long       sentAt;
+
+            SimulatedPlayer(long seed)
+            {
+                random = seed;
+            }
+
+            void newGame(SelectionKey key) throws IOException
+            {
+                Arrays.fill(heights, 0);
+                send(key, "NEW " + rows + ' ' + columns + ' ' + connectLength + '\n');
+            }
+
+            /**
+             * Play a random column that is not full
+             */
+            void move(SelectionKey key) throws IOException
+            {
+                int column;
+                do {
+                    random ^= random << 13;
+                    random ^= random >>> 7;
+                    random ^= random << 17;
+                    column = (int) ((random >>> 1) % columns);
+                } while (heights[column] == rows);
+                ++heights[column];
+                out.put((byte) 'M').put((byte) 'O').put((byte) 'V').put((byte) 'E').put((byte) ' ');
+                putInt(column);
+                out.put((byte) '\n');
+                sentAt = System.nanoTime();
+                flush(key);
+            }
+
+            void read(SelectionKey key) throws IOException
+            {
+                if (((SocketChannel) key.channel()).read(in) < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+                in.flip();
+                int start = in.position();
+                for (int i = start; i < in.limit(); i++) {
+                    if (in.get(i) == '\n') {
+                        reply(key, start, i);
+                        start = i + 1;
+                    }
+                }
+                in.position(start);
+                in.compact();
+            }
+
+            /**
+             * Act on the reply line in[start, end)
+             */
+            private void reply(SelectionKey key, int start, int end) throws IOException
+            {
+                if (in.get(start) == 'E') {
+                    ++errors;
+                    newGame(key);
+                }
+                else if (in.get(start + 3) == 'N') {
+                    move(key);
+                }
+                else {
+                    if (measuring) {
+                        latency.record(System.nanoTime() - sentAt);
+                    }
+                    // OK MOVE COLUMN STATUS
+                    int status = start + "OK MOVE ".length();
+                    while (in.get(status) != ' ') {
+                        status++;
+                    }
+                    if (in.get(status + 1) == 'P') {
+                        move(key);
+                    }
+                    else {
+                        if (measuring) {
+                            ++games;
+                        }
+                        newGame(key);
+                    }
+                }
+            }
+
+            private void send(SelectionKey key, String request) throws IOException
+            {
+                for (int i = 0; i < request.length(); i++) {
+                    out.put((byte) request.charAt(i));
+                }
+                flush(key);
+            }
+
+            void flush(SelectionKey key) throws IOException
+            {
+                out.flip();
+                ((SocketChannel) key.channel()).write(out);
+                out.compact();
+                key.interestOps(out.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+
+            private void putInt(int value)
+            {
+                if (value >= 10) {
+                    putInt(value / 10);
+                }
+                out.put((byte) ('0' + value % 10));
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package connectfour.stats;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the engine, the searches and the window, shared by
+ * every game in the process. Everything is counted with LongAdders, so games running at once
+ * do not contend; reading adds up the cells and is meant for monitoring, not for every move.
+ * <p>
+ * Moves, game over checks and searches are always counted. Each engine counts its moves and
+ * checks itself and adds them here in batches, so the counts can lag by a game. Timing a move
+ * or check costs two clock reads and a histogram record, several times the cost of the move
+ * itself, so latencies are only taken while timing is on. register turns it on. The numbers
+ * can be read through JMX after register, as connectfour:type=EngineMetrics, or printed every
+ * few seconds with startLogging.
+ */
+public class EngineMetrics implements EngineMetricsMBean
+{
+    public static final String OBJECT_NAME = "connectfour:type=EngineMetrics";
+
+    private static final EngineMetrics INSTANCE = new EngineMetrics();
+
+    private final StripedLatencyHistogram moves          = new StripedLatencyHistogram();
+    private final StripedLatencyHistogram gameOverChecks = new StripedLatencyHistogram();
+    private final StripedLatencyHistogram searches       = new StripedLatencyHistogram();
+    private final StripedLatencyHistogram boardUpdates   = new StripedLatencyHistogram();
+    private final StripedLatencyHistogram paints         = new StripedLatencyHistogram();
+
+    private final LongAdder       moveCount          = new LongAdder();
+    private final LongAdder       gameOverCheckCount = new LongAdder();
+    private final LongAdder       searchNanos        = new LongAdder();
+    private final LongAdder       searchNodes        = new LongAdder();
+    private final LongAdder       depthTotal         = new LongAdder();
+    private final LongAccumulator maxDepth           = new LongAccumulator(Math::max, 0L);
+    private final LongAdder       tableProbes        = new LongAdder();
+    private final LongAdder       tableHits          = new LongAdder();
+
+    private volatile boolean timing;
+
+    private ScheduledExecutorService logger;
+
+    private EngineMetrics()
+    {
+    }
+
+    /**
+     * Get the metrics of this process
+     *
+     * @return the shared instance
+     */
+    public static EngineMetrics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Make the metrics readable through the platform MBean server and turn timing on.
+     * Registering twice does nothing.
+     */
+    public void register()
+    {
+        timing = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // registered before
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Print the summary on a daemon thread at a fixed rate, replacing an earlier log
+     *
+     * @param seconds - time between two lines
+     * @param out - where the lines are printed
+     */
+    public synchronized void startLogging(long seconds, PrintStream out)
+    {
+        stopLogging();
+        logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.scheduleAtFixedRate(() -> out.println("metrics: " + getSummary()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic log, if there is one
+     */
+    public synchronized void stopLogging()
+    {
+        if (logger != null) {
+            logger.shutdownNow();
+            logger = null;
+        }
+    }
+
+    @Override
+    public boolean isTiming()
+    {
+        return timing;
+    }
+
+    @Override
+    public void setTiming(boolean timing)
+    {
+        this.timing = timing;
+    }
+
+    /**
+     * @param count - calls of GameEngine.tryPutDisc
+     */
+    public void countMoves(long count)
+    {
+        moveCount.add(count);
+    }
+
+    /**
+     * @param nanos - time taken by GameEngine.tryPutDisc, while timing is on
+     */
+    public void recordMove(long nanos)
+    {
+        moves.record(nanos);
+    }
+
+    /**
+     * @param count - calls of GameEngine.isGameOver
+     */
+    public void countGameOverChecks(long count)
+    {
+        gameOverCheckCount.add(count);
+    }
+
+    /**
+     * @param nanos - time taken by GameEngine.isGameOver, while timing is on
+     */
+    public void recordGameOverCheck(long nanos)
+    {
+        gameOverChecks.record(nanos);
+    }
+
+    /**
+     * Count one finished search
+     *
+     * @param nanos - time the search took
+     * @param nodes - positions visited, over all threads
+     * @param depth - deepest iteration finished
+     * @param probes - transposition table lookups
+     * @param hits - lookups that found an entry
+     */
+    public void recordSearch(long nanos, long nodes, int depth, long probes, long hits)
+    {
+        searches.record(nanos);
+        searchNanos.add(nanos);
+        searchNodes.add(nodes);
+        depthTotal.add(depth);
+        maxDepth.accumulate(depth);
+        tableProbes.add(probes);
+        tableHits.add(hits);
+    }
+
+    /**
+     * @param nanos - time taken by GUI.updateBoard to draw the last move
+     */
+    public void recordBoardUpdate(long nanos)
+    {
+        boardUpdates.record(nanos);
+    }
+
+    /**
+     * @param nanos - time taken to paint the board on the screen
+     */
+    public void recordPaint(long nanos)
+    {
+        paints.record(nanos);
+    }
+
+    @Override
+    public long getMoveCount()
+    {
+        return moveCount.sum();
+    }
+
+    @Override
+    public double getMoveMeanMicros()
+    {
+        return moves.snapshot().getMean() / 1e3;
+    }
+
+    @Override
+    public double getMoveP99Micros()
+    {
+        return moves.snapshot().getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getMoveMaxMicros()
+    {
+        return moves.snapshot().getMax() / 1e3;
+    }
+
+    @Override
+    public long getGameOverCheckCount()
+    {
+        return gameOverCheckCount.sum();
+    }
+
+    @Override
+    public double getGameOverCheckMeanMicros()
+    {
+        return gameOverChecks.snapshot().getMean() / 1e3;
+    }
+
+    @Override
+    public double getGameOverCheckP99Micros()
+    {
+        return gameOverChecks.snapshot().getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getGameOverCheckMaxMicros()
+    {
+        return gameOverChecks.snapshot().getMax() / 1e3;
+    }
+
+    @Override
+    public long getSearchCount()
+    {
+        return searches.snapshot().getCount();
+    }
+
+    @Override
+    public double getSearchMeanMillis()
+    {
+        return searches.snapshot().getMean() / 1e6;
+    }
+
+    @Override
+    public double getSearchP99Millis()
+    {
+        return searches.snapshot().getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getSearchMaxMillis()
+    {
+        return searches.snapshot().getMax() / 1e6;
+    }
+
+    @Override
+    public long getSearchNodes()
+    {
+        return searchNodes.sum();
+    }
+
+    @Override
+    public long getSearchNodesPerSecond()
+    {
+        long nanos = searchNanos.sum();
+        return nanos > 0 ? (long) (searchNodes.sum() * 1e9 / nanos) : 0;
+    }
+
+    @Override
+    public double getSearchMeanDepth()
+    {
+        long count = getSearchCount();
+        return count > 0 ? (double) depthTotal.sum() / count : 0;
+    }
+
+    @Override
+    public long getSearchMaxDepth()
+    {
+        return maxDepth.get();
+    }
+
+    @Override
+    public double getTableHitRate()
+    {
+        long probes = tableProbes.sum();
+        return probes > 0 ? (double) tableHits.sum() / probes : 0;
+    }
+
+    @Override
+    public long getBoardUpdateCount()
+    {
+        return boardUpdates.snapshot().getCount();
+    }
+
+    @Override
+    public double getBoardUpdateMeanMicros()
+    {
+        return boardUpdates.snapshot().getMean() / 1e3;
+    }
+
+    @Override
+    public double getBoardUpdateP99Micros()
+    {
+        return boardUpdates.snapshot().getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getBoardUpdateMaxMicros()
+    {
+        return boardUpdates.snapshot().getMax() / 1e3;
+    }
+
+    @Override
+    public long getPaintCount()
+    {
+        return paints.snapshot().getCount();
+    }
+
+    @Override
+    public double getPaintMeanMicros()
+    {
+        return paints.snapshot().getMean() / 1e3;
+    }
+
+    @Override
+    public double getPaintP99Micros()
+    {
+        return paints.snapshot().getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getPaintMaxMicros()
+    {
+        return paints.snapshot().getMax() / 1e3;
+    }
+
+    @Override
+    public String getSummary()
+    {
+        StringBuilder text = new StringBuilder();
+        describe(text, "moves", getMoveCount(), moves.snapshot(), 1e3, "us");
+        describe(text, "; game over checks", getGameOverCheckCount(), gameOverChecks.snapshot(), 1e3, "us");
+        LatencyHistogram searchTimes = searches.snapshot();
+        describe(text, "; searches", searchTimes.getCount(), searchTimes, 1e6, "ms");
+        text.append(String.format(Locale.ROOT, ", %d nodes, %d nodes/s, depth %.1f mean %d max, table hits %.1f%%",
+            getSearchNodes(), getSearchNodesPerSecond(), getSearchMeanDepth(), getSearchMaxDepth(),
+            getTableHitRate() * 100));
+        LatencyHistogram boardUpdateTimes = boardUpdates.snapshot();
+        describe(text, "; board updates", boardUpdateTimes.getCount(), boardUpdateTimes, 1e3, "us");
+        LatencyHistogram paintTimes = paints.snapshot();
+        describe(text, "; paints", paintTimes.getCount(), paintTimes, 1e3, "us");
+        return text.toString();
+    }
+
+    /**
+     * @param count - number of calls, which can be more than the histogram timed
+     */
+    private static void describe(StringBuilder text, String name, long count, LatencyHistogram histogram,
+                                 double scale, String unit)
+    {
+        text.append(String.format(Locale.ROOT, "%s %d mean %.1f p99 %.1f max %.1f %s", name, count,
+            histogram.getMean() / scale, histogram.getPercentile(99) / scale, histogram.getMax() / scale, unit));
+    }
+
+    @Override
+    public void reset()
+    {
+        moveCount.reset();
+        gameOverCheckCount.reset();
+        moves.reset();
+        gameOverChecks.reset();
+        searches.reset();
+        boardUpdates.reset();
+        paints.reset();
+        searchNanos.reset();
+        searchNodes.reset();
+        depthTotal.reset();
+        maxDepth.reset();
+        tableProbes.reset();
+        tableHits.reset();
+    }
+}
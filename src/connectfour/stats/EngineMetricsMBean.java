@@ -0,0 +1,84 @@
+package connectfour.stats;
+
+/**
+ * JMX view of EngineMetrics. Times are in microseconds, except for searches, which are in
+ * milliseconds. Means, percentiles and rates cover everything since the start or the last
+ * reset. Counts include every call, but move, game over check, board update and paint times
+ * only cover the calls made while timing was on. Engines add their move and check counts in
+ * batches, at the latest when a game ends.
+ */
+public interface EngineMetricsMBean
+{
+    /**
+     * @return true while latencies are being taken
+     */
+    boolean isTiming();
+
+    /**
+     * @param timing - true to take latencies, false to only count
+     */
+    void setTiming(boolean timing);
+
+    long getMoveCount();
+
+    double getMoveMeanMicros();
+
+    double getMoveP99Micros();
+
+    double getMoveMaxMicros();
+
+    long getGameOverCheckCount();
+
+    double getGameOverCheckMeanMicros();
+
+    double getGameOverCheckP99Micros();
+
+    double getGameOverCheckMaxMicros();
+
+    long getSearchCount();
+
+    double getSearchMeanMillis();
+
+    double getSearchP99Millis();
+
+    double getSearchMaxMillis();
+
+    long getSearchNodes();
+
+    long getSearchNodesPerSecond();
+
+    double getSearchMeanDepth();
+
+    long getSearchMaxDepth();
+
+    /**
+     * @return share of transposition table probes that found an entry, from 0 to 1
+     */
+    double getTableHitRate();
+
+    long getBoardUpdateCount();
+
+    double getBoardUpdateMeanMicros();
+
+    double getBoardUpdateP99Micros();
+
+    double getBoardUpdateMaxMicros();
+
+    long getPaintCount();
+
+    double getPaintMeanMicros();
+
+    double getPaintP99Micros();
+
+    double getPaintMaxMicros();
+
+    /**
+     * @return every metric on one line, as the periodic log prints it
+     */
+    String getSummary();
+
+    /**
+     * Forget everything counted so far
+     */
+    void reset();
+}
@@ -0,0 +1,178 @@
+package connectfour.stats;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed number of log-linear buckets.
+ * Every power of two is split into 32 buckets, so a percentile is never off by more than
+ * about 3%, and recording a value is a few bit operations with no allocation.
+ * <p>
+ * A histogram is not thread safe. Threads keep their own histograms and add them
+ * together with add when they are done, or record into a shared StripedLatencyHistogram.
+ */
+public class LatencyHistogram
+{
+    /**
+     * log2 of the number of buckets each power of two is split into
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * values below this have a bucket each
+     */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    /**
+     * linear buckets, then SUB_BUCKETS buckets for each power of two up to 2^62
+     */
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private       long   count;
+    private       long   total;
+    private       long   max;
+
+    /**
+     * Record one latency
+     *
+     * @param nanos - the latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0L, nanos);
+        ++counts[bucketOf(value)];
+        ++count;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Add all latencies recorded by another histogram to this one
+     *
+     * @param other - the histogram to add
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Add latencies counted per bucket elsewhere, e.g. by a StripedLatencyHistogram
+     *
+     * @param bucketCounts - number of latencies in each bucket
+     * @param bucketTotal - sum of the latencies
+     * @param bucketMax - the largest latency
+     */
+    void add(long[] bucketCounts, long bucketTotal, long bucketMax)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += bucketCounts[i];
+            count += bucketCounts[i];
+        }
+        total += bucketTotal;
+        max = Math.max(max, bucketMax);
+    }
+
+    /**
+     * Forget every recorded latency
+     */
+    public void clear()
+    {
+        Arrays.fill(counts, 0L);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * Get the latency that the given percentage of recorded latencies are at or below
+     *
+     * @param percent - the percentile, from 0 to 100
+     * @return the latency in nanoseconds, rounded up to the end of its bucket, or 0 if
+     *         nothing was recorded
+     */
+    public long getPercentile(double percent)
+    {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, bucketEnd(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * get the number of latencies recorded
+     *
+     * @return number of latencies
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * get the largest latency recorded
+     *
+     * @return the latency in nanoseconds
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * get the average latency
+     *
+     * @return the mean in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMean()
+    {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Find the bucket of a value. Values from 2^e to 2^(e+1) - 1 share SUB_BUCKETS buckets,
+     * picked by the SUB_BUCKET_BITS bits below the highest set bit.
+     *
+     * @param value - a value of 0 or more
+     * @return the bucket index
+     */
+    static int bucketOf(long value)
+    {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Get the largest value that falls in a bucket
+     *
+     * @param bucket - the bucket index
+     * @return the last value of the bucket
+     */
+    private static long bucketEnd(int bucket)
+    {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
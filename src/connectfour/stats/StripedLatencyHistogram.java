@@ -0,0 +1,66 @@
+package connectfour.stats;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram that any number of threads can record into at once, with the same
+ * buckets as LatencyHistogram. Every bucket is a LongAdder, so threads recording at the same
+ * moment update separate cells instead of fighting over one counter. Reading is slower:
+ * snapshot adds up every bucket into a LatencyHistogram. A snapshot taken while threads
+ * record is not exact, but is never off by more than the latencies recorded meanwhile.
+ */
+public class StripedLatencyHistogram
+{
+    private final LongAdder[]     counts = new LongAdder[LatencyHistogram.BUCKET_COUNT];
+    private final LongAdder       total  = new LongAdder();
+    private final LongAccumulator max    = new LongAccumulator(Math::max, 0L);
+
+    public StripedLatencyHistogram()
+    {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record one latency
+     *
+     * @param nanos - the latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0L, nanos);
+        counts[LatencyHistogram.bucketOf(value)].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Copy the latencies recorded so far
+     *
+     * @return a new histogram with the latencies
+     */
+    public LatencyHistogram snapshot()
+    {
+        long[] bucketCounts = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            bucketCounts[i] = counts[i].sum();
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(bucketCounts, total.sum(), max.get());
+        return histogram;
+    }
+
+    /**
+     * Forget every recorded latency. Latencies recorded during the reset may be kept in part.
+     */
+    public void reset()
+    {
+        for (LongAdder count : counts) {
+            count.reset();
+        }
+        total.reset();
+        max.reset();
+    }
+}
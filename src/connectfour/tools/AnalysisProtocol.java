@@ -0,0 +1,291 @@
+package connectfour.tools;
+
+import connectfour.ai.AlphaBetaPlayer;
+import connectfour.engine.GameBoard;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Text protocol in the style of UCI for analysing positions from another program over
+ * standard input and output, without a window. Commands are read one per line:
+ * <pre>
+ * isready                         answers readyok, also while searching
+ * newgame                         forget earlier searches and go back to the empty board
+ * position [startpos] [moves] M.. set the position to the moves from the empty board
+ * go [depth N] [movetime MS] [nodes N] [infinite]
+ *                                 search the position, movetime 1000 when no limit is given.
+ *                                 Waits for a running search to finish first, unless that
+ *                                 one is infinite.
+ * stop                            end the search early
+ * quit                            end the program
+ * </pre>
+ * Moves are column numbers from 0. On boards with at most 10 columns a token can also hold
+ * several moves, one digit each, so "position 3324" is the same as "position moves 3 3 2 4".
+ * Player 1 always moves first.
+ * <p>
+ * A search runs on its own thread and ends with two lines:
+ * <pre>
+ * info depth D score S nodes N nps N time MS pv M..
+ * bestmove M
+ * </pre>
+ * where S is "eval X" for a heuristic score, or "win N" / "loss N" when the player to move
+ * wins or loses in N moves. When the game is already over the answer is "bestmove none".
+ * Errors are reported as "info string ..." lines.
+ */
+public class AnalysisProtocol
+{
+    private final BufferedReader  in;
+    private final PrintStream     out;
+    private final GameBoard       board;
+    private final GameBoard       parsed;
+    private final AlphaBetaPlayer searcher;
+    private final ExecutorService searchThread;
+    private       Future<?>       search;
+    private       boolean         searchInfinite;
+
+    /**
+     * Set up the protocol on an empty board
+     *
+     * @param board - a board of the size to analyse. The protocol keeps its own copy.
+     * @param threads - number of search threads
+     * @param tableBits - log2 of the number of transposition table entries
+     * @param in - where commands are read from
+     * @param out - where answers are written to
+     */
+    public AnalysisProtocol(GameBoard board, int threads, int tableBits, BufferedReader in, PrintStream out)
+    {
+        this.in = in;
+        this.out = out;
+        this.board = new GameBoard(board.getRowNumber(), board.getColumnNumber(), board.getConnectLength());
+        parsed = new GameBoard(this.board);
+        searcher = new AlphaBetaPlayer(1, 0, 0, 0, tableBits, threads);
+        searchThread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "analysis-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Answer commands until quit or the end of the input
+     *
+     * @throws IOException if the commands cannot be read
+     */
+    public void run() throws IOException
+    {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                switch (tokens[0]) {
+                    case "":
+                        break;
+                    case "isready":
+                        send("readyok");
+                        break;
+                    case "newgame":
+                        stopSearch();
+                        searcher.clearTable();
+                        board.clearBoard();
+                        break;
+                    case "position":
+                        position(tokens);
+                        break;
+                    case "go":
+                        go(tokens);
+                        break;
+                    case "stop":
+                        stopSearch();
+                        break;
+                    case "quit":
+                        return;
+                    default:
+                        send("info string unknown command " + tokens[0]);
+                        break;
+                }
+            }
+        } finally {
+            stopSearch();
+            searchThread.shutdown();
+        }
+    }
+
+    /**
+     * Replace the position with the moves of a position command. An illegal move leaves
+     * the position as it was.
+     */
+    private void position(String[] tokens)
+    {
+        parsed.clearBoard();
+        boolean digits = parsed.getColumnNumber() <= 10;
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.equals("startpos") || token.equals("moves")) {
+                continue;
+            }
+            try {
+                if (digits) {
+                    for (int j = 0; j < token.length(); j++) {
+                        play(Character.digit(token.charAt(j), 10), token);
+                    }
+                }
+                else {
+                    play(Integer.parseInt(token), token);
+                }
+            } catch (IllegalArgumentException e) {
+                send("info string " + e.getMessage());
+                return;
+            }
+        }
+        board.copyFrom(parsed);
+    }
+
+    private void play(int column, String token)
+    {
+        if (parsed.isLastMoveWinning()) {
+            throw new IllegalArgumentException("move after the end of the game: " + token);
+        }
+        if (parsed.tryPutDisc(parsed.getDiscCount() % 2 + 1, column) != GameBoard.MOVE_DONE) {
+            throw new IllegalArgumentException("illegal move: " + token);
+        }
+    }
+
+    /**
+     * Start searching a copy of the position
+     */
+    private void go(String[] tokens)
+    {
+        if (search != null && !search.isDone() && searchInfinite) {
+            send("info string already searching");
+            return;
+        }
+        int depth = 0;
+        long millis = 0;
+        long nodes = 0;
+        boolean infinite = false;
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                switch (tokens[i]) {
+                    case "depth":
+                        depth = Integer.parseInt(tokens[++i]);
+                        break;
+                    case "movetime":
+                        millis = Long.parseLong(tokens[++i]);
+                        break;
+                    case "nodes":
+                        nodes = Long.parseLong(tokens[++i]);
+                        break;
+                    case "infinite":
+                        infinite = true;
+                        break;
+                    default:
+                        send("info string unknown go option " + tokens[i]);
+                        return;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            send("info string bad go command");
+            return;
+        }
+        if (!infinite && depth == 0 && millis == 0 && nodes == 0) {
+            millis = AlphaBetaPlayer.DEFAULT_MOVE_MILLIS;
+        }
+
+        waitForSearch();
+        GameBoard position = new GameBoard(board);
+        if (position.isLastMoveWinning() || position.isBoardFull()) {
+            send("bestmove none");
+            return;
+        }
+        int depthLimit = depth;
+        long millisLimit = millis;
+        long nodeLimit = nodes;
+        searchInfinite = infinite;
+        search = searchThread.submit(() -> {
+            long start = System.nanoTime();
+            int move = searcher.analyze(position, depthLimit, millisLimit, nodeLimit);
+            report(move, System.nanoTime() - start);
+        });
+    }
+
+    private void report(int move, long nanos)
+    {
+        int score = searcher.getLastScore();
+        String scoreText;
+        if (score > AlphaBetaPlayer.WIN_THRESHOLD) {
+            scoreText = "win " + (AlphaBetaPlayer.WIN_SCORE - score);
+        }
+        else if (score < -AlphaBetaPlayer.WIN_THRESHOLD) {
+            scoreText = "loss " + (AlphaBetaPlayer.WIN_SCORE + score);
+        }
+        else {
+            scoreText = "eval " + score;
+        }
+        StringBuilder pv = new StringBuilder();
+        for (int column : searcher.getPrincipalVariation()) {
+            pv.append(' ').append(column);
+        }
+        send("info depth " + searcher.getLastDepth() + " score " + scoreText + " nodes " + searcher.getLastNodeCount()
+            + " nps " + searcher.getLastNodesPerSecond() + " time " + nanos / 1000000 + " pv" + pv);
+        send("bestmove " + move);
+    }
+
+    /**
+     * Wait until a running search has reported its move
+     */
+    private void waitForSearch()
+    {
+        endSearch(false);
+    }
+
+    /**
+     * Ask a running search to stop and wait until it has reported its move
+     */
+    private void stopSearch()
+    {
+        endSearch(true);
+    }
+
+    /**
+     * Wait for the search, if there is one. Every search gets exactly one stop, before the
+     * wait to cut it short or after it to match it, so that the searcher never takes a stop
+     * for the next search.
+     *
+     * @param stop - true to stop the search instead of letting it finish
+     */
+    private void endSearch(boolean stop)
+    {
+        if (search == null) {
+            return;
+        }
+        if (stop) {
+            searcher.stop();
+        }
+        try {
+            search.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (!stop) {
+                searcher.stop();
+            }
+            search = null;
+        }
+    }
+
+    private void send(String line)
+    {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package connectfour.tools;
+
+import connectfour.ai.AlphaBetaPlayer;
+import connectfour.engine.GameBoard;
+import connectfour.records.GameRecordReader;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Annotates every move of the games in a game record file. The calling thread reads the
+ * games and hands them to a fixed pool of workers through a bounded queue; when the workers
+ * fall behind, reading waits, so memory use does not depend on the size of the file. Each
+ * worker replays its games on its own board and searches every position with its own
+ * AlphaBetaPlayer.
+ * <p>
+ * The output is a CSV file with one line per move: game,ply,player,move,best,score,blunder
+ * where game and ply count from 0, best is the move the search prefers and score is the
+ * search's score of the position for the player to move (see AlphaBetaPlayer.getLastScore).
+ * A move is a blunder when it throws away a forced win, walks into a forced loss, or with
+ * --margin=N scores N or more below the best move. The lines of one game are written
+ * together, but games are written in the order they finish, not the order of the file.
+ * <p>
+ * Usage: BatchAnalyzer RECORDS OUT [--depth=N] [--millis=N] [--threads=N] [--margin=N]
+ * <p>
+ * OUT can be - for standard output. Positions are searched to depth 10 by default; with
+ * --millis a time limit per position is used as well.
+ */
+public class BatchAnalyzer
+{
+    private static final int DEFAULT_DEPTH = 10;
+    private static final int TABLE_BITS    = 20;
+
+    /**
+     * games waiting in the queue per worker
+     */
+    private static final int QUEUE_GAMES_PER_THREAD = 16;
+
+    /**
+     * tells a worker there are no more games
+     */
+    private static final Game END = new Game(-1, new short[0]);
+
+    private final int  depth;
+    private final long millis;
+    private final int  margin;
+
+    /**
+     * Set up an analysis
+     *
+     * @param depth - moves to search ahead from each position, 0 for no depth limit
+     * @param millis - time limit per position in milliseconds, 0 for no time limit
+     * @param margin - score drop that makes a move a blunder, 0 to only count thrown away
+     *                 forced results
+     */
+    public BatchAnalyzer(int depth, long millis, int margin)
+    {
+        if (depth <= 0 && millis <= 0) {
+            throw new IllegalArgumentException("A depth or time limit is needed");
+        }
+        this.depth = depth;
+        this.millis = millis;
+        this.margin = margin;
+    }
+
+    public static void main(String... args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchAnalyzer RECORDS OUT [--depth=N] [--millis=N] [--threads=N] [--margin=N]");
+            System.exit(1);
+        }
+        int depth = DEFAULT_DEPTH;
+        long millis = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int margin = 0;
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--depth=")) {
+                depth = Integer.parseInt(arg.substring("--depth=".length()));
+            }
+            else if (arg.startsWith("--millis=")) {
+                millis = Long.parseLong(arg.substring("--millis=".length()));
+            }
+            else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            }
+            else if (arg.startsWith("--margin=")) {
+                margin = Integer.parseInt(arg.substring("--margin=".length()));
+            }
+        }
+        BatchAnalyzer analyzer = new BatchAnalyzer(depth, millis, margin);
+        try (GameRecordReader reader = new GameRecordReader(Paths.get(args[0]));
+             Writer out = args[1].equals("-")
+                 ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                 : Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            analyzer.run(reader, out, threads);
+        }
+    }
+
+    /**
+     * Annotate every game of a file
+     *
+     * @param reader - the games to annotate
+     * @param out - where the annotations are written. It is flushed but not closed.
+     * @param threads - number of worker threads
+     *
+     * @throws IOException if the games cannot be read or the annotations cannot be written
+     */
+    public void run(GameRecordReader reader, Writer out, int threads) throws IOException
+    {
+        BlockingQueue<Game> queue = new ArrayBlockingQueue<>(threads * QUEUE_GAMES_PER_THREAD);
+        out.write("game,ply,player,move,best,score,blunder\n");
+        long start = System.nanoTime();
+        List<Worker> workers = new ArrayList<>();
+        List<Future<?>> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                Worker worker = new Worker(queue, reader.newBoard(), out);
+                workers.add(worker);
+                results.add(pool.submit(worker));
+            }
+
+            GameBoard board = reader.newBoard();
+            long game = 0;
+            while (reader.next(board)) {
+                short[] moves = new short[board.getDiscCount()];
+                for (int i = 0; i < moves.length; i++) {
+                    moves[i] = (short) board.getMoveAt(i);
+                }
+                offer(queue, new Game(game++, moves), results);
+            }
+            for (int i = 0; i < threads; i++) {
+                offer(queue, END, results);
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Analysis interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+        long nanos = System.nanoTime() - start;
+
+        long games = 0;
+        long positions = 0;
+        long blunders = 0;
+        for (Worker worker : workers) {
+            games += worker.games;
+            positions += worker.positions;
+            blunders += worker.blunders;
+        }
+        System.err.printf("%d games, %d positions, %d blunders in %.1f s (%.0f positions/s) on %d threads%n", games,
+            positions, blunders, nanos / 1e9, positions * 1e9 / nanos, threads);
+    }
+
+    /**
+     * Queue a game, waiting while the queue is full. Gives up if a worker has failed, since
+     * then the queue might never empty.
+     */
+    private static void offer(BlockingQueue<Game> queue, Game item, List<Future<?>> results)
+        throws InterruptedException, ExecutionException
+    {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<?> result : results) {
+                if (result.isDone()) {
+                    result.get();
+                    throw new IllegalStateException("Analysis worker stopped early");
+                }
+            }
+        }
+    }
+
+    /**
+     * A game read from the file
+     */
+    private static class Game
+    {
+        private final long    number;
+        private final short[] moves;
+
+        Game(long number, short[] moves)
+        {
+            this.number = number;
+            this.moves = moves;
+        }
+    }
+
+    /**
+     * Annotates games from the queue until it gets END
+     */
+    private class Worker implements Runnable
+    {
+        private final BlockingQueue<Game> queue;
+        private final GameBoard           board;
+        private final Writer              out;
+        private final AlphaBetaPlayer     searcher = new AlphaBetaPlayer(1, 0, 0, 0, TABLE_BITS, 1);
+        private final StringBuilder       text     = new StringBuilder();
+
+        /**
+         * best move and score of each position of the current game, and of the position after it
+         */
+        private final int[] bestMoves;
+        private final int[] scores;
+
+        private long games;
+        private long positions;
+        private long blunders;
+
+        Worker(BlockingQueue<Game> queue, GameBoard board, Writer out)
+        {
+            this.queue = queue;
+            this.board = board;
+            this.out = out;
+            bestMoves = new int[board.getRowNumber() * board.getColumnNumber() + 1];
+            scores = new int[bestMoves.length];
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                Game game;
+                while ((game = queue.take()) != END) {
+                    annotate(game);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void annotate(Game game)
+        {
+            short[] moves = game.moves;
+
+            // search every position, including the one after the last move
+            board.clearBoard();
+            for (int ply = 0; ply <= moves.length; ply++) {
+                if (ply > 0) {
+                    board.tryPutDisc((ply - 1) % 2 + 1, moves[ply - 1]);
+                }
+                if (board.isLastMoveWinning()) {
+                    // the player to move has lost
+                    bestMoves[ply] = GameBoard.NO_MOVE;
+                    scores[ply] = -AlphaBetaPlayer.WIN_SCORE;
+                }
+                else if (board.isBoardFull()) {
+                    bestMoves[ply] = GameBoard.NO_MOVE;
+                    scores[ply] = 0;
+                }
+                else {
+                    bestMoves[ply] = searcher.analyze(board, depth, millis, 0);
+                    scores[ply] = searcher.getLastScore();
+                    ++positions;
+                }
+            }
+
+            text.setLength(0);
+            for (int ply = 0; ply < moves.length; ply++) {
+                boolean blunder = isBlunder(scores[ply], -scores[ply + 1]);
+                if (blunder) {
+                    ++blunders;
+                }
+                text.append(game.number).append(',').append(ply).append(',').append(ply % 2 + 1).append(',')
+                    .append(moves[ply]).append(',').append(bestMoves[ply]).append(',').append(scores[ply])
+                    .append(',').append(blunder ? 1 : 0).append('\n');
+            }
+            ++games;
+            try {
+                synchronized (out) {
+                    out.append(text);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @param best - score of the position for the player who moved
+         * @param played - score of the move played, for the same player
+         * @return true if the move gave away a forced result or, with a margin, too much score
+         */
+        private boolean isBlunder(int best, int played)
+        {
+            int threshold = AlphaBetaPlayer.WIN_THRESHOLD;
+            if (best > threshold && played <= threshold) {
+                return true;
+            }
+            if (best >= -threshold && played < -threshold) {
+                return true;
+            }
+            return margin > 0 && Math.abs(best) <= threshold && Math.abs(played) <= threshold
+                && best - played >= margin;
+        }
+    }
+}
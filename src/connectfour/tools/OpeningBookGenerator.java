@@ -0,0 +1,140 @@
+package connectfour.tools;
+
+import connectfour.ai.AlphaBetaPlayer;
+import connectfour.ai.OpeningBook;
+import connectfour.engine.GameBoard;
+import connectfour.engine.LongHashSet;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds an opening book: every position reachable from the empty board in up to PLY moves
+ * is searched and its best move and score are written to a book file for OpeningBook.
+ * Positions that are mirror images of each other are searched once. The searches run on
+ * a fixed pool of threads, each with its own search players.
+ * <p>
+ * Usage: OpeningBookGenerator FILE PLY [DEPTH] [THREADS] [ROWS COLUMNS CONNECT]
+ * <p>
+ * DEPTH is how far ahead each position is searched (default 14, 0 to solve the position,
+ * which is only practical on small boards).
+ */
+public class OpeningBookGenerator
+{
+    private static final int TABLE_BITS = 20;
+
+    /**
+     * memory for the hashes of the positions found, enough for 6 million positions
+     */
+    private static final long SEEN_MEMORY = 64L << 20;
+
+    public static void main(String... args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: OpeningBookGenerator FILE PLY [DEPTH] [THREADS] [ROWS COLUMNS CONNECT]");
+            System.exit(1);
+        }
+        int ply = Integer.parseInt(args[1]);
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 14;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        GameBoard board = args.length > 6
+            ? new GameBoard(Integer.parseInt(args[4]), Integer.parseInt(args[5]), Integer.parseInt(args[6]))
+            : new GameBoard();
+
+        List<int[]> positions = new ArrayList<>();
+        collectPositions(board, ply, new int[ply], new LongHashSet(SEEN_MEMORY, false), positions);
+        System.err.printf("%d positions up to ply %d%n", positions.size(), ply);
+
+        int count = positions.size();
+        long[] hashes = new long[count];
+        int[] moves = new int[count];
+        int[] scores = new int[count];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        long start = System.nanoTime();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> {
+                    GameBoard position = new GameBoard(board);
+                    AlphaBetaPlayer[] searchers = {
+                        new AlphaBetaPlayer(1, depth, 0, 0, TABLE_BITS, 1),
+                        new AlphaBetaPlayer(2, depth, 0, 0, TABLE_BITS, 1),
+                    };
+                    int index;
+                    while ((index = next.getAndIncrement()) < count) {
+                        int[] line = positions.get(index);
+                        position.clearBoard();
+                        for (int played = 0; played < line.length; played++) {
+                            position.tryPutDisc(played % 2 + 1, line[played]);
+                        }
+                        AlphaBetaPlayer searcher = searchers[line.length % 2];
+                        int move = searcher.chooseMove(position);
+                        long canonical = position.getCanonicalHash();
+                        hashes[index] = canonical;
+                        moves[index] = position.getHash() == canonical ? move : position.getColumnNumber() - 1 - move;
+                        scores[index] = searcher.getLastScore();
+                        int finished = done.incrementAndGet();
+                        if (finished % 1000 == 0) {
+                            System.err.printf("%d/%d positions%n", finished, count);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        OpeningBook.write(Paths.get(args[0]), board, hashes, moves, scores, count);
+        System.err.printf("wrote %d positions in %.1f s%n", count, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Walk every line of play up to a number of moves and keep the first line found to each
+     * position (or its mirror image) that is not already over
+     *
+     * @param board - the position reached by the line so far
+     * @param ply - moves left to walk
+     * @param line - the moves of the line so far
+     * @param seen - canonical hashes of the positions kept so far
+     * @param positions - the lines of the positions kept
+     */
+    private static void collectPositions(GameBoard board, int ply, int[] line, LongHashSet seen,
+        List<int[]> positions)
+    {
+        if (board.isLastMoveWinning() || board.isBoardFull() || !seen.add(board.getCanonicalHash())) {
+            return;
+        }
+        int length = board.getDiscCount();
+        positions.add(Arrays.copyOf(line, length));
+        if (ply == 0) {
+            return;
+        }
+        int player = length % 2 + 1;
+        for (int column = 0; column < board.getColumnNumber(); column++) {
+            if (board.tryPutDisc(player, column) == GameBoard.MOVE_DONE) {
+                line[length] = column;
+                collectPositions(board, ply - 1, line, seen, positions);
+                board.undo();
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package connectfour.tools;
+
+import connectfour.engine.GameBoard;
+import connectfour.engine.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the positions reachable from a position in up to DEPTH moves, as a repeatable
+ * benchmark and correctness check of putting discs and finding wins. Games stop at a win or
+ * a full board, so positions after a winning move are counted but not played on.
+ * <p>
+ * By default every line of play is counted. With --unique each position is counted once no
+ * matter how many lines reach it (positions are told apart by their Zobrist hash, kept in a
+ * LongHashSet of --memory megabytes, 64 by default, off the heap with --offheap). 64 MB
+ * holds the positions of the standard board up to 10 moves deep. For the standard 7 column,
+ * 6 row board the unique counts from the empty board are checked against the published
+ * position counts.
+ * <p>
+ * The top of the tree is split into fork-join tasks, each with its own board; below
+ * SEQUENTIAL_DEPTH moves from the bottom a task plays and takes back moves on its board.
+ * <p>
+ * Usage: Perft DEPTH [--unique] [--memory=MB] [--offheap] [--moves=COLUMNS] [--threads=N]
+ * [--rows=N] [--columns=N] [--connect=N]
+ * <p>
+ * COLUMNS are the moves from the empty board to the start position, as digits ("3324") or
+ * separated by commas on boards with more than 10 columns.
+ */
+public class Perft
+{
+    /**
+     * subtrees of this many moves or fewer are walked by a single task
+     */
+    private static final int SEQUENTIAL_DEPTH = 5;
+
+    private static final int DEFAULT_MEMORY_MB = 64;
+
+    /**
+     * unique positions of the 7 column, 6 row board after each number of moves
+     */
+    private static final long[] KNOWN_UNIQUE_7X6 = {
+        1L, 7L, 49L, 238L, 1120L, 4263L, 16422L, 54859L, 184275L, 558186L, 1662623L, 4568683L, 12236101L,
+    };
+
+    private final int         maxDepth;
+    private final LongHashSet seen;
+    private final LongAdder[] counts;
+
+    /**
+     * Set up a count
+     *
+     * @param maxDepth - number of moves to play from the start position
+     * @param seen - hashes of the positions counted so far, to count each position once,
+     *               or null to count every line of play
+     */
+    public Perft(int maxDepth, LongHashSet seen)
+    {
+        this.maxDepth = maxDepth;
+        this.seen = seen;
+        counts = new LongAdder[maxDepth + 1];
+        for (int i = 0; i <= maxDepth; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count the positions from a start position
+     *
+     * @param root - the start position. It is not changed.
+     * @param pool - the pool to run the tasks on
+     * @return the number of positions after each number of moves, from 0 to maxDepth
+     *
+     * @throws IllegalStateException if the set of seen positions fills up
+     */
+    public long[] count(GameBoard root, ForkJoinPool pool)
+    {
+        pool.invoke(new PerftTask(new GameBoard(root), 0));
+        long[] result = new long[maxDepth + 1];
+        for (int i = 0; i <= maxDepth; i++) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    public static void main(String... args)
+    {
+        if (args.length < 1) {
+            System.err.println("Usage: Perft DEPTH [--unique] [--memory=MB] [--offheap] [--moves=COLUMNS] [--threads=N]"
+                + " [--rows=N] [--columns=N] [--connect=N]");
+            System.exit(1);
+        }
+        int depth = Integer.parseInt(args[0]);
+        boolean unique = false;
+        long memoryMb = DEFAULT_MEMORY_MB;
+        boolean offHeap = false;
+        String moves = "";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rows = GameBoard.DEFAULT_ROWS;
+        int columns = GameBoard.DEFAULT_COLUMNS;
+        int connectLength = GameBoard.DEFAULT_CONNECT_LENGTH;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--unique")) {
+                unique = true;
+            }
+            else if (arg.startsWith("--memory=")) {
+                memoryMb = Long.parseLong(arg.substring("--memory=".length()));
+            }
+            else if (arg.equals("--offheap")) {
+                offHeap = true;
+            }
+            else if (arg.startsWith("--moves=")) {
+                moves = arg.substring("--moves=".length());
+            }
+            else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            }
+            else if (arg.startsWith("--rows=")) {
+                rows = Integer.parseInt(arg.substring("--rows=".length()));
+            }
+            else if (arg.startsWith("--columns=")) {
+                columns = Integer.parseInt(arg.substring("--columns=".length()));
+            }
+            else if (arg.startsWith("--connect=")) {
+                connectLength = Integer.parseInt(arg.substring("--connect=".length()));
+            }
+        }
+
+        GameBoard board = new GameBoard(rows, columns, connectLength);
+        List<String> line = new ArrayList<>();
+        if (moves.contains(",")) {
+            line.addAll(List.of(moves.split(",")));
+        }
+        else {
+            for (char move : moves.toCharArray()) {
+                line.add(String.valueOf(move));
+            }
+        }
+        for (String move : line) {
+            if (board.tryPutDisc(board.getDiscCount() % 2 + 1, Integer.parseInt(move.trim())) != GameBoard.MOVE_DONE) {
+                throw new IllegalArgumentException("Illegal move in --moves: " + move);
+            }
+        }
+
+        LongHashSet seen = null;
+        if (unique) {
+            try {
+                seen = new LongHashSet(memoryMb << 20, offHeap);
+            } catch (OutOfMemoryError e) {
+                System.err.println("Cannot allocate a " + memoryMb + " MB position set, give it less --memory or "
+                    + (offHeap ? "raise -XX:MaxDirectMemorySize" : "a bigger heap with -Xmx"));
+                System.exit(1);
+                return;
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        long[] counts;
+        try {
+            counts = new Perft(depth, seen).count(board, pool);
+        } catch (IllegalStateException e) {
+            // fork-join rethrows a copy of a task's exception with the original as its cause
+            Throwable full = e.getCause() instanceof IllegalStateException ? e.getCause() : e;
+            System.err.println(full.getMessage() + ", give it more --memory");
+            System.exit(1);
+            return;
+        } finally {
+            pool.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+
+        boolean checkKnown = unique && line.isEmpty() && rows == 6 && columns == 7 && connectLength == 4;
+        long total = 0;
+        System.out.printf("%5s %16s%s%n", "moves", unique ? "positions" : "lines", checkKnown ? "  known" : "");
+        for (int i = 0; i <= depth; i++) {
+            total += counts[i];
+            String known = "";
+            if (checkKnown && i < KNOWN_UNIQUE_7X6.length) {
+                known = counts[i] == KNOWN_UNIQUE_7X6[i] ? "  ok" : "  MISMATCH, expected " + KNOWN_UNIQUE_7X6[i];
+            }
+            System.out.printf("%5d %16d%s%n", i, counts[i], known);
+        }
+        System.out.printf("%d nodes in %.2f s (%,d nodes/s) on %d threads%n", total, nanos / 1e9,
+            (long) (total * 1e9 / nanos), threads);
+        if (seen != null) {
+            printTableStats(seen);
+        }
+    }
+
+    private static void printTableStats(LongHashSet seen)
+    {
+        long[] probes = seen.getProbeCounts();
+        long keys = 0;
+        long totalProbes = 0;
+        int maxProbes = 0;
+        for (int i = 0; i < probes.length; i++) {
+            keys += probes[i];
+            totalProbes += probes[i] * (i + 1);
+            if (probes[i] != 0) {
+                maxProbes = i + 1;
+            }
+        }
+        System.out.printf("position set: %d keys in %d MB %s, load %.2f, probes mean %.2f max %s%d%n", seen.size(),
+            seen.getMemoryBytes() >> 20, seen.isOffHeap() ? "off heap" : "on heap", seen.getLoadFactor(),
+            keys == 0 ? 0.0 : (double) totalProbes / keys, maxProbes == probes.length ? ">=" : "", maxProbes);
+    }
+
+    /**
+     * Counts the positions below one position. Near the root the moves are split into
+     * child tasks, deeper down they are walked on the task's own board.
+     */
+    private class PerftTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 6410583312967340211L;
+
+        private final GameBoard board;
+        private final int       ply;
+
+        PerftTask(GameBoard board, int ply)
+        {
+            this.board = board;
+            this.ply = ply;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (maxDepth - ply <= SEQUENTIAL_DEPTH) {
+                long[] local = new long[maxDepth + 1];
+                walk(ply, local);
+                for (int i = ply; i <= maxDepth; i++) {
+                    if (local[i] != 0) {
+                        counts[i].add(local[i]);
+                    }
+                }
+                return;
+            }
+            if (!visit()) {
+                return;
+            }
+            counts[ply].increment();
+            if (isOver()) {
+                return;
+            }
+            int player = board.getDiscCount() % 2 + 1;
+            List<PerftTask> children = new ArrayList<>();
+            for (int column = 0; column < board.getColumnNumber(); column++) {
+                GameBoard child = new GameBoard(board);
+                if (child.tryPutDisc(player, column) == GameBoard.MOVE_DONE) {
+                    children.add(new PerftTask(child, ply + 1));
+                }
+            }
+            invokeAll(children);
+        }
+
+        /**
+         * Count the position and everything below it, playing and taking back moves on the board
+         *
+         * @param ply - moves played from the start position
+         * @param local - counts per number of moves, added to the totals when the task is done
+         */
+        private void walk(int ply, long[] local)
+        {
+            if (!visit()) {
+                return;
+            }
+            ++local[ply];
+            if (ply == maxDepth || isOver()) {
+                return;
+            }
+            int player = board.getDiscCount() % 2 + 1;
+            for (int column = 0; column < board.getColumnNumber(); column++) {
+                if (board.tryPutDisc(player, column) == GameBoard.MOVE_DONE) {
+                    walk(ply + 1, local);
+                    board.undo();
+                }
+            }
+        }
+
+        /**
+         * @return false if positions are counted once and this one was already counted
+         */
+        private boolean visit()
+        {
+            return seen == null || seen.add(board.getHash());
+        }
+
+        private boolean isOver()
+        {
+            return board.isLastMoveWinning() || board.isBoardFull();
+        }
+    }
+}
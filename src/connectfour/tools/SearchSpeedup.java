@@ -0,0 +1,66 @@
+package connectfour.tools;
+
+import connectfour.ai.AlphaBetaPlayer;
+import connectfour.engine.GameBoard;
+
+/**
+ * Measures how much faster the parallel alpha-beta search reaches a fixed depth than the
+ * single threaded search, over a fixed set of positions.
+ * <p>
+ * Usage: SearchSpeedup [THREADS] [DEPTH]
+ */
+public class SearchSpeedup
+{
+    /**
+     * positions given as the columns played from the empty board
+     */
+    private static final String[] POSITIONS = {
+        "",
+        "3",
+        "33",
+        "3324",
+        "332415",
+        "23344",
+        "3332221",
+        "0123456",
+    };
+
+    public static void main(String... args)
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        System.out.printf("%-10s %12s %12s %10s%n", "position", "1 thread ms", threads + " threads ms", "speedup");
+        long totalSingle = 0;
+        long totalParallel = 0;
+        for (String moves : POSITIONS) {
+            GameBoard board = new GameBoard();
+            int player = 1;
+            for (char move : moves.toCharArray()) {
+                board.tryPutDisc(player, move - '0');
+                player = 3 - player;
+            }
+            long single = timeSearch(board, player, depth, 1);
+            long parallel = timeSearch(board, player, depth, threads);
+            totalSingle += single;
+            totalParallel += parallel;
+            System.out.printf("%-10s %12.1f %12.1f %10.2f%n", moves.isEmpty() ? "(empty)" : moves,
+                single / 1e6, parallel / 1e6, (double) single / parallel);
+        }
+        System.out.printf("%-10s %12.1f %12.1f %10.2f%n", "total", totalSingle / 1e6, totalParallel / 1e6,
+            (double) totalSingle / totalParallel);
+    }
+
+    /**
+     * Search a position to a fixed depth with a fresh player
+     *
+     * @return the search time in nanoseconds
+     */
+    private static long timeSearch(GameBoard board, int player, int depth, int threads)
+    {
+        AlphaBetaPlayer searcher = new AlphaBetaPlayer(player, depth, 0, 0, AlphaBetaPlayer.DEFAULT_TABLE_BITS, threads);
+        long start = System.nanoTime();
+        searcher.chooseMove(board);
+        return System.nanoTime() - start;
+    }
+}
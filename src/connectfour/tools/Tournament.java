@@ -0,0 +1,313 @@
+package connectfour.tools;
+
+import connectfour.ai.OpeningBook;
+import connectfour.ai.PlayerFactory;
+import connectfour.engine.GameBoard;
+import connectfour.engine.GameEngine;
+import connectfour.engine.Player;
+import connectfour.engine.Scoreboard;
+import connectfour.records.GameRecordWriter;
+import connectfour.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays many games between two computer players without a GUI. The games are shared out
+ * between a fixed number of worker threads. Each worker has its own boards and one player of
+ * each kind, which plays from either seat, so workers never wait for each other except to
+ * write a finished game to the game log. The results go to one Scoreboard, which takes no
+ * lock to count a game.
+ * <p>
+ * The two players take turns going first. Every game can be streamed to a CSV file as
+ * game,first,winner,moves,nanos where first and winner are p1 or p2 (the player specs given
+ * on the command line) and winner is draw when nobody won. A player that picks an illegal
+ * move loses the game. When all games are done a summary CSV with each player's wins,
+ * losses, draws, per-move latency percentiles and Elo rating is printed.
+ */
+public class Tournament
+{
+    private static final String[] NAMES = {"p1", "p2"};
+
+    private final String[] specs;
+    private final int      rows;
+    private final int      columns;
+    private final int      connectLength;
+
+    /**
+     * shared by the alpha-beta players of every worker, or null
+     */
+    private OpeningBook openingBook;
+
+    /**
+     * where every game is saved, or null
+     */
+    private GameRecordWriter recordWriter;
+
+    /**
+     * Set up a tournament between two kinds of computer players
+     *
+     * @param p1Spec - the first player, as given to PlayerFactory
+     * @param p2Spec - the second player, as given to PlayerFactory
+     * @param rows - number of rows of the board
+     * @param columns - number of columns of the board
+     * @param connectLength - number of discs in a row needed to win
+     *
+     * @throws IllegalArgumentException if a spec is not a computer player or the board size is invalid
+     */
+    public Tournament(String p1Spec, String p2Spec, int rows, int columns, int connectLength)
+    {
+        specs = new String[] {p1Spec, p2Spec};
+        for (String spec : specs) {
+            if (!PlayerFactory.isComputer(spec)) {
+                throw new IllegalArgumentException("Tournament players must be computer players: " + spec);
+            }
+        }
+        // fail before any games start on an invalid board size
+        new GameBoard(rows, columns, connectLength);
+        this.rows = rows;
+        this.columns = columns;
+        this.connectLength = connectLength;
+    }
+
+    /**
+     * Let the alpha-beta players play from an opening book
+     *
+     * @param openingBook - the book, or null for none
+     */
+    public void setOpeningBook(OpeningBook openingBook)
+    {
+        this.openingBook = openingBook;
+    }
+
+    /**
+     * Save every game to a game record file. The writer is shared by all workers and
+     * is not closed by the tournament.
+     *
+     * @param recordWriter - the file to add games to, or null to not save games
+     */
+    public void setRecordWriter(GameRecordWriter recordWriter)
+    {
+        this.recordWriter = recordWriter;
+    }
+
+    /**
+     * Play the games and print the summary
+     *
+     * @param games - number of games to play
+     * @param threads - number of games played at once
+     * @param gameLogPath - file to write every game to, or null for no game log
+     * @param out - where the summary is printed
+     *
+     * @throws IOException if the game log cannot be written
+     */
+    public void run(long games, int threads, String gameLogPath, PrintStream out) throws IOException
+    {
+        AtomicLong nextGame = new AtomicLong();
+        Scoreboard scoreboard = new Scoreboard();
+        Writer gameLog = null;
+        if (gameLogPath != null) {
+            gameLog = Files.newBufferedWriter(Paths.get(gameLogPath), StandardCharsets.UTF_8);
+            gameLog.write("game,first,winner,moves,nanos\n");
+        }
+
+        long start = System.nanoTime();
+        List<Worker> workers = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Worker worker = new Worker(nextGame, games, gameLog, scoreboard);
+                workers.add(worker);
+                results.add(pool.submit(worker));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Tournament interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // workers that are still playing stop after their current game
+            nextGame.set(games);
+            pool.shutdown();
+            if (gameLog != null) {
+                gameLog.close();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram()};
+        for (Worker worker : workers) {
+            for (int i = 0; i < 2; i++) {
+                latencies[i].add(worker.latencies[i]);
+            }
+        }
+
+        out.println("player,spec,wins,losses,draws,moves,mean_us,p50_us,p90_us,p99_us,p999_us,max_us,elo");
+        for (int i = 0; i < 2; i++) {
+            LatencyHistogram latency = latencies[i];
+            Scoreboard.Standing standing = scoreboard.getStanding(i + 1);
+            out.printf("%s,%s,%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.0f%n", NAMES[i], specs[i],
+                standing.getWins(), standing.getLosses(), standing.getDraws(), latency.getCount(),
+                latency.getMean() / 1e3, latency.getPercentile(50) / 1e3, latency.getPercentile(90) / 1e3,
+                latency.getPercentile(99) / 1e3, latency.getPercentile(99.9) / 1e3, latency.getMax() / 1e3,
+                standing.getRating());
+        }
+        System.err.printf("%d games in %.1f s (%.1f games/s) on %d threads%n", games, nanos / 1e9,
+            games * 1e9 / nanos, threads);
+    }
+
+    /**
+     * Plays games until there are none left. Move times are kept per worker and added
+     * together when the tournament is over; results go straight to the scoreboard, where
+     * p1 has id 1 and p2 has id 2.
+     */
+    private class Worker implements Runnable
+    {
+        private final AtomicLong nextGame;
+        private final long       games;
+        private final Writer     gameLog;
+        private final Scoreboard scoreboard;
+
+        /**
+         * engines[i] has player p1 going first when i is 0 and p2 going first when i is 1.
+         * The engines' own players only mark the seats; players[i] picks the moves of p1 or p2
+         * in whichever seat it has, so every worker searches with just two players.
+         */
+        private final GameEngine[] engines = new GameEngine[2];
+        private final Player[]     players = new Player[2];
+
+        private final LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram()};
+        private final StringBuilder      line      = new StringBuilder();
+
+        Worker(AtomicLong nextGame, long games, Writer gameLog, Scoreboard scoreboard)
+        {
+            this.nextGame = nextGame;
+            this.games = games;
+            this.gameLog = gameLog;
+            this.scoreboard = scoreboard;
+        }
+
+        @Override
+        public void run()
+        {
+            long game;
+            while ((game = nextGame.getAndIncrement()) < games) {
+                int first = (int) (game & 1);
+                long start = System.nanoTime();
+                int winner = play(engine(first), first);
+                long nanos = System.nanoTime() - start;
+                if (gameLog != null) {
+                    log(game, first, winner, nanos);
+                }
+                if (recordWriter != null) {
+                    record(first, winner);
+                }
+            }
+        }
+
+        /**
+         * Play one game from the empty board
+         *
+         * @param engine - the game to play
+         * @param first - index of the player going first
+         * @return index of the winning player or -1 for a draw
+         */
+        private int play(GameEngine engine, int first)
+        {
+            engine.clearBoard();
+            Player result;
+            while ((result = engine.isGameOver()) == null) {
+                int mover = engine.getCurrentPlayer().getInt() == 1 ? first : 1 - first;
+                long start = System.nanoTime();
+                int column = player(mover).chooseMove(engine.getBoard());
+                latencies[mover].record(System.nanoTime() - start);
+                if (engine.tryPutDisc(column) != GameBoard.MOVE_DONE) {
+                    // the engine only counts games that end on the board
+                    scoreboard.recordWin(2 - mover, mover + 1);
+                    return 1 - mover;
+                }
+            }
+            if (result.getInt() == 0) {
+                return -1;
+            }
+            return result.getInt() == 1 ? first : 1 - first;
+        }
+
+        /**
+         * Get the game where the given player goes first, creating it on first use
+         *
+         * @param first - index of the player going first
+         * @return the game engine
+         */
+        private GameEngine engine(int first)
+        {
+            if (engines[first] == null) {
+                engines[first] = new GameEngine(new Player(1), new Player(2),
+                    new GameBoard(rows, columns, connectLength), scoreboard, first + 1, 2 - first);
+            }
+            return engines[first];
+        }
+
+        /**
+         * Get a player, creating it on first use
+         *
+         * @param index - 0 for p1, 1 for p2
+         * @return the player
+         */
+        private Player player(int index)
+        {
+            if (players[index] == null) {
+                players[index] = PlayerFactory.create(index + 1, specs[index], openingBook);
+            }
+            return players[index];
+        }
+
+        /**
+         * Save the last game. A win by forfeit is saved as a win even though the board
+         * does not show one.
+         */
+        private void record(int first, int winner)
+        {
+            int result = winner < 0 ? GameRecordWriter.RESULT_DRAW : winner == first ? 1 : 2;
+            try {
+                recordWriter.write(engines[first].getBoard(), result);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void log(long game, int first, int winner, long nanos)
+        {
+            line.setLength(0);
+            line.append(game).append(',').append(NAMES[first]).append(',')
+                .append(winner < 0 ? "draw" : NAMES[winner]).append(',')
+                .append(engines[first].getBoard().getDiscCount()).append(',').append(nanos).append('\n');
+            try {
+                synchronized (gameLog) {
+                    gameLog.append(line);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}